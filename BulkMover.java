@@ -0,0 +1,95 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Moves many selected items into one folder. All destination names are planned before the first
+// move, the moves run on a pool of threads and failures are collected instead of reported one by one.
+public class BulkMover {
+
+    private final int threadCount;
+    private final FileMover fileMover;
+    private final DestinationNameAllocator nameAllocator = new DestinationNameAllocator();
+
+    // Outcome of a bulk move
+    public static class Result {
+        public final Map<Path, Path> moved = new ConcurrentHashMap<>();
+        public final Map<Path, String> failures = new ConcurrentSkipListMap<>();
+
+        // Method to describe the failures for a summary dialog, listing at most maxLines of them
+        public String failureSummary(int maxLines) {
+            StringBuilder summary = new StringBuilder();
+            int lines = 0;
+            for (Map.Entry<Path, String> failure : failures.entrySet()) {
+                if (lines == maxLines) {
+                    summary.append("...and ").append(failures.size() - maxLines).append(" more");
+                    break;
+                }
+                summary.append(failure.getKey().getFileName()).append(": ").append(failure.getValue()).append(System.lineSeparator());
+                lines++;
+            }
+            return summary.toString();
+        }
+    }
+
+    // A source and the name reserved for it in the destination folder
+    private static class PlannedMove {
+        final Path source;
+        final Path destination;
+
+        PlannedMove(Path source, Path destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+
+    public BulkMover(int threadCount, FileMover fileMover) {
+        this.threadCount = Math.max(1, threadCount);
+        this.fileMover = fileMover;
+    }
+
+    // Method to move every source into the destination folder, blocking until all moves are done
+    public Result moveAll(java.util.List<Path> sources, Path destinationFolder) throws InterruptedException {
+        Result result = new Result();
+
+        // Plan every destination name first so the workers never compete for names
+        java.util.List<PlannedMove> plan = new ArrayList<>(sources.size());
+        for (Path source : sources) {
+            try {
+                Path destination = nameAllocator.allocate(destinationFolder, source.getFileName().toString(), Files.isDirectory(source));
+                plan.add(new PlannedMove(source, destination));
+            } catch (IOException e) {
+                result.failures.put(source, describe(e));
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(threadCount, Math.max(1, plan.size())), r -> {
+            Thread thread = new Thread(r, "bulk-move-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (PlannedMove move : plan) {
+            workers.execute(() -> {
+                try {
+                    fileMover.move(move.source, move.destination);
+                    result.moved.put(move.source, move.destination);
+                } catch (IOException e) {
+                    nameAllocator.release(move.destination);
+                    result.failures.put(move.source, describe(e));
+                }
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private static String describe(IOException e) {
+        if (e instanceof FileSystemException && ((FileSystemException) e).getReason() != null) {
+            return ((FileSystemException) e).getReason();
+        }
+        return e.getClass().getSimpleName() + (e.getMessage() != null ? " " + e.getMessage() : "");
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Remembers the content hashes of files in the destination, keyed by path and only trusted while the
+// size and modification time are the ones the hash was taken at. Kept in a file between runs, so
+// a repeat run does not read the files in the archive again.
+public class ContentHashCache {
+
+    // File the hashes are kept in, next to the ticket folder index
+    static final Path CACHE_FILE = TicketFolderIndex.INDEX_FOLDER.resolve("content-hashes.bin");
+
+    private static final int MAGIC = 0x46534843; // "FSHC"
+    private static final int VERSION = 1;
+
+    // Entries kept when saving; the least recently used ones are dropped first
+    private static final int MAX_ENTRIES = 200000;
+
+    // Hashes of one file at one size and modification time
+    static class Entry {
+        final long size;
+        final long modifiedTime;
+        volatile long partialHash;
+        volatile boolean hasPartialHash;
+        volatile byte[] fullHash;
+        volatile long lastUsed;
+
+        Entry(long size, long modifiedTime) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong useCounter = new AtomicLong();
+    private volatile boolean dirty = false;
+
+    // Method to read the saved hashes; a missing or damaged file gives an empty cache
+    public static ContentHashCache load() {
+        ContentHashCache cache = new ContentHashCache();
+        if (!Files.isRegularFile(CACHE_FILE)) {
+            return cache;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(CACHE_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong());
+                entry.hasPartialHash = in.readBoolean();
+                entry.partialHash = in.readLong();
+                int fullHashLength = in.readUnsignedByte();
+                if (fullHashLength > 0) {
+                    entry.fullHash = new byte[fullHashLength];
+                    in.readFully(entry.fullHash);
+                }
+                cache.entries.put(path, entry);
+            }
+        } catch (IOException e) {
+            // Start over, the cache is rebuilt as files are hashed
+            cache.entries.clear();
+            e.printStackTrace();
+        }
+        return cache;
+    }
+
+    // Method to get the entry for a file as it is now, dropping the old one if the file changed
+    Entry entryFor(Path file, BasicFileAttributes attrs) {
+        String key = file.toAbsolutePath().normalize().toString();
+        long size = attrs.size();
+        long modifiedTime = attrs.lastModifiedTime().toMillis();
+
+        Entry entry = entries.get(key);
+        if (entry == null || entry.size != size || entry.modifiedTime != modifiedTime) {
+            entry = new Entry(size, modifiedTime);
+            entries.put(key, entry);
+        }
+        entry.lastUsed = useCounter.incrementAndGet();
+        return entry;
+    }
+
+    // Method to keep hashes that were taken of a file before it was moved, under its new path
+    void moved(Entry hashes, Path destination) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(destination, BasicFileAttributes.class);
+            Entry entry = entryFor(destination, attrs);
+            if (entry.size == hashes.size) {
+                entry.partialHash = hashes.partialHash;
+                entry.hasPartialHash = hashes.hasPartialHash;
+                entry.fullHash = hashes.fullHash;
+                changed();
+            }
+        } catch (IOException e) {
+            // Hashed again next time
+        }
+    }
+
+    void changed() {
+        dirty = true;
+    }
+
+    // Method to write the cache if any hash was added
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        java.util.List<Map.Entry<String, Entry>> kept = new ArrayList<>(entries.entrySet());
+        if (kept.size() > MAX_ENTRIES) {
+            kept.sort((a, b) -> Long.compare(b.getValue().lastUsed, a.getValue().lastUsed));
+            kept = kept.subList(0, MAX_ENTRIES);
+        }
+
+        dirty = false;
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+            Path temporaryFile = CACHE_FILE.resolveSibling(CACHE_FILE.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                int count = 0;
+                for (Map.Entry<String, Entry> entry : kept) {
+                    if (entry.getValue().hasPartialHash) {
+                        count++;
+                    }
+                }
+                out.writeInt(count);
+                for (Map.Entry<String, Entry> cached : kept) {
+                    Entry entry = cached.getValue();
+                    if (!entry.hasPartialHash) {
+                        continue;
+                    }
+                    out.writeUTF(cached.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modifiedTime);
+                    out.writeBoolean(entry.hasPartialHash);
+                    out.writeLong(entry.partialHash);
+                    byte[] fullHash = entry.fullHash;
+                    out.writeByte(fullHash == null ? 0 : fullHash.length);
+                    if (fullHash != null) {
+                        out.write(fullHash);
+                    }
+                }
+            }
+            Files.move(temporaryFile, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            e.printStackTrace();
+        }
+    }
+}
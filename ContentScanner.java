@@ -0,0 +1,202 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.zip.*;
+
+// Finds the ticket number inside a file whose name has none, such as log.txt or capture.zip from a
+// customer upload. Only the first part of a file is read, up to a byte budget, so a sweep over large
+// recordings costs the same as one over small logs. For a zip archive the entry names and comments are
+// read from its central directory instead, without extracting anything.
+//
+// Scans run on the sort workers, but only a few at a time, so moves of matched items keep going while
+// unmatched files are read. A file found to have no ticket number is not read again until it changes;
+// the most recent of these are remembered, so files that were moved or deleted are forgotten in time.
+//
+// Content is only scanned with the ticket pattern. Routing rules pick folders by name, extension and
+// size, so while they are in use files are only sorted by their names.
+public class ContentScanner {
+
+    // Kilobytes read from the start of each file by default
+    static final int DEFAULT_BUDGET_KB = 64;
+
+    // Number of files without a ticket number that are remembered
+    private static final int UNMATCHED_KEPT = 50000;
+
+    private final TicketMatcher ticketMatcher;
+    private final int budgetBytes;
+    private final Semaphore scanPermits;
+
+    // One read buffer per worker, each the size of the budget
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    // Files read without finding a ticket number, with their size and time then, least recently seen first
+    private final Map<Path, long[]> unmatched = Collections.synchronizedMap(new LinkedHashMap<Path, long[]>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, long[]> eldest) {
+            return size() > UNMATCHED_KEPT;
+        }
+    });
+
+    // The bytes of a buffer as characters, one byte each, so a pattern can run over them without decoding
+    private static class ByteCharSequence implements CharSequence {
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+
+        ByteCharSequence(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new ByteCharSequence(bytes, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, end - start, java.nio.charset.StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    // Method to build the scanner for the saved settings, or null if content is not to be scanned
+    public static ContentScanner fromSettings(String ticketPattern, String routingRules, int budgetKb, int threadCount) {
+        if (budgetKb <= 0 || TicketMatcher.fromSettings(ticketPattern, routingRules) instanceof RoutingRules) {
+            return null;
+        }
+        return new ContentScanner(TicketMatcher.fromSetting(ticketPattern), budgetKb, Math.max(1, threadCount / 2));
+    }
+
+    public ContentScanner(TicketMatcher ticketMatcher, int budgetKb, int maxConcurrentScans) {
+        this.ticketMatcher = ticketMatcher;
+        this.budgetBytes = Math.max(1, budgetKb) * 1024;
+        this.scanPermits = new Semaphore(Math.max(1, maxConcurrentScans));
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(budgetBytes));
+    }
+
+    // Method to return the ticket number found in the file, or null if there is none in the part read
+    public String scan(Path file, long size, long modifiedTime) throws InterruptedIOException {
+        long[] previous = unmatched.get(file);
+        if (previous != null && previous[0] == size && previous[1] == modifiedTime) {
+            return null;
+        }
+
+        try {
+            scanPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sort interrupted");
+        }
+        String ticketNumber;
+        try {
+            ticketNumber = isZip(file) ? scanZip(file) : scanStart(file);
+        } catch (IOException | RuntimeException e) {
+            // Not readable or not a real zip; treated like a file without a ticket number
+            ticketNumber = null;
+        } finally {
+            scanPermits.release();
+        }
+
+        // Bytes from a customer are no folder name: anything that is not a plain name counts as no ticket number
+        if (ticketNumber != null && !TicketMatcher.isFolderName(ticketNumber)) {
+            ticketNumber = null;
+        }
+        if (ticketNumber == null) {
+            unmatched.put(file, new long[]{size, modifiedTime});
+        } else {
+            unmatched.remove(file);
+        }
+        return ticketNumber;
+    }
+
+    // Method to read the start of the file into the worker's buffer with a single positional read
+    private String scanStart(Path file) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+                // A single read is usually enough; a network share may hand out less
+            }
+        }
+        return match(buffer.array(), 0, buffer.position());
+    }
+
+    // Method to look through the archive comment, then each entry name and comment, within the budget
+    private String scanZip(Path file) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file.toFile())) {
+            int remaining = budgetBytes;
+            String ticketNumber = matchText(zipFile.getComment());
+            if (ticketNumber != null) {
+                return ticketNumber;
+            }
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements() && remaining > 0) {
+                ZipEntry entry = entries.nextElement();
+                ticketNumber = matchText(entry.getName());
+                if (ticketNumber == null) {
+                    ticketNumber = matchText(entry.getComment());
+                }
+                if (ticketNumber != null) {
+                    return ticketNumber;
+                }
+                remaining -= entry.getName().length() + (entry.getComment() != null ? entry.getComment().length() : 0);
+            }
+        }
+        return null;
+    }
+
+    private String matchText(String text) {
+        return text != null && !text.isEmpty() ? ticketMatcher.match(text) : null;
+    }
+
+    // Method to find the ticket number in raw bytes; the digit rule is checked byte by byte, a pattern runs over the bytes as characters
+    private String match(byte[] bytes, int start, int end) {
+        if (ticketMatcher instanceof TicketMatcher.DigitRunMatcher) {
+            return matchDigits(bytes, start, end, ((TicketMatcher.DigitRunMatcher) ticketMatcher).getConsecutiveCount());
+        }
+        return ticketMatcher.match(new ByteCharSequence(bytes, start, end));
+    }
+
+    // Same rule as for names: the whole first run of at least the given number of digits
+    static String matchDigits(byte[] bytes, int start, int end, int consecutiveCount) {
+        int runStart = -1;
+
+        for (int i = start; i <= end; i++) {
+            // Unsigned compare: one branch tells whether the byte is a digit
+            boolean digit = i < end && (bytes[i] - '0' & 0xFF) <= 9;
+            if (digit) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+            } else if (runStart >= 0) {
+                if (i - runStart >= consecutiveCount) {
+                    return new String(bytes, runStart, i - runStart, java.nio.charset.StandardCharsets.ISO_8859_1);
+                }
+                runStart = -1;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isZip(Path file) {
+        String name = file.getFileName().toString();
+        return name.regionMatches(true, name.length() - TicketArchiver.ARCHIVE_EXTENSION.length(),
+                TicketArchiver.ARCHIVE_EXTENSION, 0, TicketArchiver.ARCHIVE_EXTENSION.length());
+    }
+}
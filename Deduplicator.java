@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
+
+// Finds files in a ticket folder with the same content as a file about to be sorted into it. Candidates
+// are narrowed down by size, then by a checksum of the first and last 64 KB, and only then compared by
+// a full SHA-256 hash, computed for all remaining candidates at once on a pool of hashing threads.
+//
+// Files already in the archive are read through memory-mapped windows. The file being sorted is read
+// with plain reads instead: it is moved or deleted right after, and Windows refuses both while a
+// mapping of the file is still open.
+public class Deduplicator implements Closeable {
+
+    // What to do with a file whose content is already in its ticket folder
+    public enum Mode {
+        OFF, DROP, LINK;
+
+        // Method to read the registry setting, anything unknown means off
+        public static Mode fromSetting(String setting) {
+            try {
+                return Mode.valueOf(setting.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                return OFF;
+            }
+        }
+    }
+
+    // Bytes read from each end of a file for the partial checksum
+    private static final int PARTIAL_BYTES = 64 * 1024;
+
+    // Size of each memory-mapped window while hashing a whole file
+    private static final long MAPPED_WINDOW = 64L * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final Mode mode;
+    private final ContentHashCache cache;
+    private final ExecutorService hashingPool;
+
+    // Files of each size in each ticket folder; each bucket is also the lock for sorting files of that size into the folder
+    private final ConcurrentHashMap<Path, ConcurrentHashMap<Long, Bucket>> folders = new ConcurrentHashMap<>();
+
+    // Hashes of sorted files that turned out to be new, handed to the cache once the file has moved
+    private final ConcurrentHashMap<Path, ContentHashCache.Entry> newFileHashes = new ConcurrentHashMap<>();
+
+    // The files of one size in one folder
+    public static class Bucket {
+        private final java.util.List<Path> files = new ArrayList<>();
+    }
+
+    public Deduplicator(Mode mode, ContentHashCache cache, int hashingThreads) {
+        this.mode = mode;
+        this.cache = cache;
+        this.hashingPool = Executors.newFixedThreadPool(Math.max(1, hashingThreads), r -> {
+            Thread thread = new Thread(r, "content-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    // Method to get the bucket for files of a size in a folder, listing the folder the first time
+    public Bucket bucket(Path folder, long size) throws IOException {
+        ConcurrentHashMap<Long, Bucket> sizes = folders.get(folder);
+        if (sizes == null) {
+            ConcurrentHashMap<Long, Bucket> listed = listFolder(folder);
+            sizes = folders.putIfAbsent(folder, listed);
+            if (sizes == null) {
+                sizes = listed;
+            }
+        }
+        return sizes.computeIfAbsent(size, k -> new Bucket());
+    }
+
+    // Method to find a file in the bucket with the same content, or null. Call while holding the bucket.
+    public Path findDuplicate(Bucket bucket, Path file, BasicFileAttributes attrs) throws IOException {
+        // Empty files are all alike, and so are the placeholders of moves still running
+        if (attrs.size() == 0 || bucket.files.isEmpty()) {
+            return null;
+        }
+
+        ContentHashCache.Entry fileHashes = new ContentHashCache.Entry(attrs.size(), attrs.lastModifiedTime().toMillis());
+        partialHash(file, fileHashes);
+
+        java.util.List<Path> candidates = new ArrayList<>();
+        java.util.List<ContentHashCache.Entry> candidateHashes = new ArrayList<>();
+        for (Path candidate : bucket.files) {
+            try {
+                BasicFileAttributes candidateAttrs = Files.readAttributes(candidate, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!candidateAttrs.isRegularFile() || candidateAttrs.size() != attrs.size()) {
+                    continue;
+                }
+                ContentHashCache.Entry hashes = cache.entryFor(candidate, candidateAttrs);
+                if (!hashes.hasPartialHash) {
+                    partialHash(candidate, hashes);
+                    cache.changed();
+                }
+                if (hashes.partialHash == fileHashes.partialHash) {
+                    candidates.add(candidate);
+                    candidateHashes.add(hashes);
+                }
+            } catch (IOException e) {
+                // A candidate that went away or cannot be read is not a duplicate
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        // Hash the file and every candidate that is still in the running in parallel
+        java.util.List<Callable<Void>> hashTasks = new ArrayList<>();
+        hashTasks.add(() -> {
+            fileHashes.fullHash = fullHash(file, attrs.size(), false);
+            return null;
+        });
+        for (int i = 0; i < candidates.size(); i++) {
+            Path candidate = candidates.get(i);
+            ContentHashCache.Entry hashes = candidateHashes.get(i);
+            if (hashes.fullHash == null) {
+                hashTasks.add(() -> {
+                    hashes.fullHash = fullHash(candidate, hashes.size, true);
+                    cache.changed();
+                    return null;
+                });
+            }
+        }
+        runAll(hashTasks);
+
+        // A file still being written to must not be dropped for matching its first bytes
+        if (!unchanged(file, fileHashes)) {
+            return null;
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Path candidate = candidates.get(i);
+            ContentHashCache.Entry hashes = candidateHashes.get(i);
+            if (hashes.fullHash != null && MessageDigest.isEqual(hashes.fullHash, fileHashes.fullHash) && unchanged(candidate, hashes)) {
+                return candidate;
+            }
+        }
+
+        // Not a duplicate: keep the hashes so they can follow the file to its new path
+        newFileHashes.put(file, fileHashes);
+        return null;
+    }
+
+    // Method to record a file that was sorted into the bucket, so later files can be compared with it. Call while holding the bucket.
+    public void added(Bucket bucket, Path source, Path destination) {
+        bucket.files.add(destination);
+        ContentHashCache.Entry hashes = newFileHashes.remove(source);
+        if (hashes != null) {
+            cache.moved(hashes, destination);
+        }
+    }
+
+    // Method to save the hash cache and stop the hashing threads
+    @Override
+    public void close() {
+        hashingPool.shutdown();
+        cache.save();
+    }
+
+    private ConcurrentHashMap<Long, Bucket> listFolder(Path folder) throws IOException {
+        ConcurrentHashMap<Long, Bucket> sizes = new ConcurrentHashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path entry : stream) {
+                BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isRegularFile() && attrs.size() > 0) {
+                    sizes.computeIfAbsent(attrs.size(), k -> new Bucket()).files.add(entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // A new folder has nothing to compare with
+        }
+        return sizes;
+    }
+
+    // A file still being copied in changes size or time while it is hashed, so check once more
+    private static boolean unchanged(Path file, ContentHashCache.Entry hashes) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return attrs.size() == hashes.size && attrs.lastModifiedTime().toMillis() == hashes.modifiedTime;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Method to run the hash tasks on the pool; the first task hashes the file being sorted and must succeed
+    private void runAll(java.util.List<Callable<Void>> tasks) throws IOException {
+        try {
+            java.util.List<Future<Void>> futures = hashingPool.invokeAll(tasks);
+            futures.get(0).get();
+            // A candidate that could not be read keeps no full hash and is simply not matched
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing");
+        }
+    }
+
+    // Checksum of the size and the first and last 64 KB
+    private static void partialHash(Path file, ContentHashCache.Entry hashes) throws IOException {
+        CRC32C checksum = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = hashes.size;
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, PARTIAL_BYTES));
+            readFully(channel, buffer, 0);
+            checksum.update(buffer.flip());
+            if (size > PARTIAL_BYTES) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(PARTIAL_BYTES, size - PARTIAL_BYTES));
+                checksum.update(buffer.flip());
+            }
+        }
+        hashes.partialHash = checksum.getValue() ^ (hashes.size * 31);
+        hashes.hasPartialHash = true;
+    }
+
+    // SHA-256 of exactly the given number of bytes
+    private static byte[] fullHash(Path file, long size, boolean mapped) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (mapped) {
+                for (long position = 0; position < size; position += MAPPED_WINDOW) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW, size - position));
+                    digest.update(window);
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+                long position = 0;
+                while (position < size) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        break;
+                    }
+                    position += read;
+                    digest.update(buffer.flip());
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+}
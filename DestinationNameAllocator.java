@@ -0,0 +1,273 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hands out collision-free names inside destination folders. Each folder is listed once, after that
+// the next "name(N)" comes from memory. Every name is reserved on disk with an atomic create, so the
+// result stays correct when another process writes to the folder at the same time.
+// With a TicketFolderIndex, a ticket folder that has not changed since the last run is not listed at all.
+public class DestinationNameAllocator {
+
+    private final ConcurrentHashMap<Path, FolderIndex> folders = new ConcurrentHashMap<>();
+    private final TicketFolderIndex ticketFolderIndex;
+
+    public DestinationNameAllocator() {
+        this(null);
+    }
+
+    public DestinationNameAllocator(TicketFolderIndex ticketFolderIndex) {
+        this.ticketFolderIndex = ticketFolderIndex;
+    }
+
+    // Names known to exist in one folder, and the highest copy number seen for each base name
+    private static class FolderIndex {
+        final Set<String> names = new HashSet<>();
+        final Map<String, Integer> highestCopyIndex = new HashMap<>();
+        boolean loaded = false;
+
+        // Names added since the ticket folder index was last brought up to date
+        boolean changed = false;
+
+        void add(String name) {
+            names.add(name);
+            changed = true;
+
+            // A name like "log(3).txt" is copy 3 of "log.txt" as a file and copy 0 of itself as a directory
+            int extensionIndex = name.lastIndexOf('.');
+            String stem = extensionIndex <= 0 ? name : name.substring(0, extensionIndex);
+            int fileCopyIndex = parseCopyIndex(stem);
+            if (fileCopyIndex > 0) {
+                recordCopyIndex(copyKey(name.substring(0, copyIndexStart(stem)) + name.substring(stem.length()), false), fileCopyIndex);
+            }
+            int directoryCopyIndex = parseCopyIndex(name);
+            if (directoryCopyIndex > 0) {
+                recordCopyIndex(copyKey(name.substring(0, copyIndexStart(name)), true), directoryCopyIndex);
+            }
+        }
+
+        private void recordCopyIndex(String key, int copyIndex) {
+            Integer highest = highestCopyIndex.get(key);
+            if (highest == null || copyIndex > highest) {
+                highestCopyIndex.put(key, copyIndex);
+            }
+        }
+    }
+
+    // Method to reserve a free name for an item in the folder. The returned path exists afterwards as an
+    // empty file or directory, which the move then replaces. Call release() if the move fails.
+    public Path allocate(Path folder, String name, boolean directory) throws IOException {
+        FolderIndex index = folders.computeIfAbsent(folder, k -> new FolderIndex());
+
+        synchronized (index) {
+            if (!index.loaded) {
+                scanFolder(folder, index);
+            }
+
+            String key = copyKey(name, directory);
+            String candidate = name;
+            int copyIndex = 0;
+            if (index.names.contains(name)) {
+                copyIndex = index.highestCopyIndex.getOrDefault(key, 0) + 1;
+                candidate = copyName(name, copyIndex, directory);
+            }
+
+            while (true) {
+                Path destination = folder.resolve(candidate);
+                try {
+                    if (directory) {
+                        Files.createDirectory(destination);
+                    } else {
+                        Files.createFile(destination);
+                    }
+                    index.add(candidate);
+                    return destination;
+                } catch (FileAlreadyExistsException e) {
+                    // Someone else wrote this name since the folder was listed, take the next one
+                    index.add(candidate);
+                    copyIndex++;
+                    candidate = copyName(name, copyIndex, directory);
+                }
+            }
+        }
+    }
+
+    // Method to pick a free name in memory only, for planning a run without touching the disk
+    public Path plan(Path folder, String name, boolean directory) throws IOException {
+        FolderIndex index = folders.computeIfAbsent(folder, k -> new FolderIndex());
+
+        synchronized (index) {
+            if (!index.loaded) {
+                scanFolder(folder, index);
+            }
+
+            String candidate = name;
+            if (index.names.contains(name)) {
+                candidate = copyName(name, index.highestCopyIndex.getOrDefault(copyKey(name, directory), 0) + 1, directory);
+            }
+            index.add(candidate);
+            return folder.resolve(candidate);
+        }
+    }
+
+    // Method to reserve a name chosen earlier by plan(); if it has been taken since, a new name is allocated
+    public Path reserve(Path destination, String name, boolean directory) throws IOException {
+        Path folder = destination.getParent();
+        FolderIndex index = folders.computeIfAbsent(folder, k -> new FolderIndex());
+
+        synchronized (index) {
+            try {
+                if (directory) {
+                    Files.createDirectory(destination);
+                } else {
+                    Files.createFile(destination);
+                }
+                index.add(destination.getFileName().toString());
+                return destination;
+            } catch (FileAlreadyExistsException e) {
+                index.add(destination.getFileName().toString());
+            }
+        }
+        return allocate(folder, name, directory);
+    }
+
+    // Method to note a folder that was just created, so it is known to be empty without listing it
+    public void folderCreated(Path folder) {
+        FolderIndex index = folders.computeIfAbsent(folder, k -> new FolderIndex());
+        synchronized (index) {
+            index.loaded = true;
+            index.changed = true;
+        }
+    }
+
+    // Method to drop what is known about every folder, so each is looked at again when next used
+    public void forgetFolders() {
+        folders.clear();
+    }
+
+    // Method to remove the placeholder of a name whose move did not happen
+    public void release(Path reserved) {
+        try {
+            Files.deleteIfExists(reserved);
+        } catch (IOException e) {
+            // Leave a non-empty or locked placeholder where it is
+        }
+    }
+
+    // Method to write the names of every folder this allocator has changed back to the ticket folder index,
+    // so the next run does not have to list them
+    public void updateTicketFolderIndex() {
+        if (ticketFolderIndex == null) {
+            return;
+        }
+        for (Map.Entry<Path, FolderIndex> folder : folders.entrySet()) {
+            FolderIndex index = folder.getValue();
+            synchronized (index) {
+                if (!index.changed) {
+                    continue;
+                }
+                FileTime modifiedTime = modifiedTime(folder.getKey());
+                if (index.loaded && modifiedTime != null) {
+                    ticketFolderIndex.folderListed(folder.getKey(), modifiedTime, index.names);
+                }
+                index.changed = false;
+            }
+        }
+    }
+
+    private void scanFolder(Path folder, FolderIndex index) throws IOException {
+        // Read the time first, so a change made while listing shows up as a newer time next run
+        FileTime modifiedTime = ticketFolderIndex != null ? modifiedTime(folder) : null;
+        if (modifiedTime != null) {
+            java.util.List<String> indexedNames = ticketFolderIndex.folderNames(folder, modifiedTime);
+            if (indexedNames != null) {
+                for (String name : indexedNames) {
+                    index.add(name);
+                }
+                index.loaded = true;
+                return;
+            }
+        }
+
+        java.util.List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+                index.add(name);
+                names.add(name);
+            }
+        } catch (NoSuchFileException e) {
+            // A missing folder has no names yet, creating the placeholder will report it
+        }
+        index.loaded = true;
+
+        if (modifiedTime != null) {
+            ticketFolderIndex.folderListed(folder, modifiedTime, names);
+        }
+    }
+
+    private static FileTime modifiedTime(Path folder) {
+        try {
+            return Files.getLastModifiedTime(folder);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Method to build the "name(N)" form used for copies; files keep their extension after the number
+    static String copyName(String name, int copyIndex, boolean directory) {
+        if (copyIndex == 0) {
+            return name;
+        }
+
+        int extensionIndex = directory ? -1 : name.lastIndexOf('.');
+        if (extensionIndex <= 0) {
+            // Directories and names without an extension get the number at the end
+            return name + "(" + copyIndex + ")";
+        }
+
+        String nameWithoutExtension = name.substring(0, extensionIndex);
+        String extension = name.substring(extensionIndex + 1);
+        return nameWithoutExtension + "(" + copyIndex + ")." + extension;
+    }
+
+    // Key shared by a name and all of its numbered copies, e.g. "log.txt" and "log(3).txt"
+    private static String copyKey(String name, boolean directory) {
+        int extensionIndex = directory ? -1 : name.lastIndexOf('.');
+        if (extensionIndex <= 0) {
+            return "d:" + name;
+        }
+        return "f:" + name;
+    }
+
+    private static int parseCopyIndex(String stem) {
+        int start = copyIndexStart(stem);
+        if (start < 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(stem.substring(start + 1, stem.length() - 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Method to find where a trailing "(N)" starts, or -1 if the stem has none
+    private static int copyIndexStart(String stem) {
+        int length = stem.length();
+        if (length < 3 || stem.charAt(length - 1) != ')') {
+            return -1;
+        }
+
+        int i = length - 2;
+        while (i >= 0 && stem.charAt(i) >= '0' && stem.charAt(i) <= '9') {
+            i--;
+        }
+
+        if (i < 0 || i == length - 2 || stem.charAt(i) != '(' || length - 2 - i > 9) {
+            return -1;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,367 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+// The entries of one folder with their size, modification time and type, kept column by column in
+// primitive arrays. Sorting and filtering work on int arrays of row numbers, so re-sorting 100k entries
+// compares longs instead of building an object per row.
+//
+// Filtering uses an index of every three-character run (trigram) in the lower-cased names: a filter of
+// three or more characters only looks at the rows that contain all of its trigrams. The index is built
+// the first time a filter needs it and kept up to date as entries are added.
+//
+// Removed entries are marked rather than taken out, so row numbers in the index stay valid until the
+// folder is listed again. After the snapshot is handed to the EDT it is only touched there.
+public class DirectorySnapshot {
+
+    public static final byte TYPE_FOLDER = 0;
+    public static final byte TYPE_FILE = 1;
+    public static final byte TYPE_OTHER = 2;
+    public static final byte TYPE_UNKNOWN = 3;
+
+    // Size and modification time of entries only known by name, e.g. from the ticket folder index
+    public static final long UNKNOWN = -1;
+
+    // Rows in the order the folder gave them, before any column is sorted on
+    public static final int COLUMN_NONE = -1;
+    public static final int COLUMN_NAME = 0;
+    public static final int COLUMN_SIZE = 1;
+    public static final int COLUMN_MODIFIED = 2;
+    public static final int COLUMN_TYPE = 3;
+
+    private String[] names;
+    private long[] sizes;
+    private long[] modifiedTimes;
+    private byte[] types;
+    private boolean[] removed;
+    private int count = 0;
+    private int removedCount = 0;
+
+    private final Map<String, Integer> rowsByName = new HashMap<>();
+
+    // Trigram to the rows whose name contains it, built on first use
+    private Map<Long, IntList> trigrams;
+
+    // Growable int array for the trigram postings
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    // Compares two rows by number, for sorting row arrays without boxing
+    private interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    // Called on the listing thread after each entry, e.g. to show entries page by page; it may block until
+    // more entries are wanted, and returning false stops the listing
+    public interface PartListener {
+        boolean listed(DirectorySnapshot partial);
+    }
+
+    public DirectorySnapshot(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        names = new String[capacity];
+        sizes = new long[capacity];
+        modifiedTimes = new long[capacity];
+        types = new byte[capacity];
+        removed = new boolean[capacity];
+    }
+
+    // Method to list a folder with the attributes of every entry. A walk one level deep gets the attributes
+    // with the listing itself on Windows, instead of a separate stat per entry.
+    public static DirectorySnapshot list(Path folder, PartListener partListener) throws IOException {
+        DirectorySnapshot snapshot = new DirectorySnapshot(1024);
+        Files.walkFileTree(folder, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                snapshot.put(entry.getFileName().toString(), attrs);
+                if (partListener != null && !partListener.listed(snapshot)) {
+                    return FileVisitResult.TERMINATE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path entry, IOException exc) throws IOException {
+                if (entry.equals(folder)) {
+                    // The folder itself cannot be read
+                    throw exc;
+                }
+                // Still show the name of an entry whose attributes cannot be read
+                snapshot.put(entry.getFileName().toString(), UNKNOWN, UNKNOWN, TYPE_UNKNOWN);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return snapshot;
+    }
+
+    // Method to add an entry, or update it if the name is there already
+    public void put(String name, BasicFileAttributes attrs) {
+        byte type = attrs.isDirectory() ? TYPE_FOLDER : attrs.isRegularFile() ? TYPE_FILE : TYPE_OTHER;
+        put(name, attrs.size(), attrs.lastModifiedTime().toMillis(), type);
+    }
+
+    public void put(String name, long size, long modifiedTime, byte type) {
+        Integer existing = rowsByName.get(name);
+        if (existing != null) {
+            sizes[existing] = size;
+            modifiedTimes[existing] = modifiedTime;
+            types[existing] = type;
+            return;
+        }
+
+        if (count == names.length) {
+            int capacity = count * 2;
+            names = Arrays.copyOf(names, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            modifiedTimes = Arrays.copyOf(modifiedTimes, capacity);
+            types = Arrays.copyOf(types, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+        }
+        int row = count++;
+        names[row] = name;
+        sizes[row] = size;
+        modifiedTimes[row] = modifiedTime;
+        types[row] = type;
+        rowsByName.put(name, row);
+        if (trigrams != null) {
+            indexTrigrams(row);
+        }
+    }
+
+    // Method to mark an entry as gone, returns false if it was not there
+    public boolean remove(String name) {
+        Integer row = rowsByName.remove(name);
+        if (row == null) {
+            return false;
+        }
+        removed[row] = true;
+        removedCount++;
+        return true;
+    }
+
+    // Method to copy the entries so far, e.g. for the listing cache
+    public DirectorySnapshot copy() {
+        return copy(0);
+    }
+
+    // Method to copy the entries added from a row on, for showing a folder page by page while it is listed
+    public DirectorySnapshot copy(int fromRow) {
+        DirectorySnapshot copy = new DirectorySnapshot(count - fromRow);
+        for (int row = fromRow; row < count; row++) {
+            if (!removed[row]) {
+                copy.put(names[row], sizes[row], modifiedTimes[row], types[row]);
+            }
+        }
+        return copy;
+    }
+
+    // Method to return the row of an entry, or -1 if it is not there
+    public int rowOf(String name) {
+        Integer row = rowsByName.get(name);
+        return row != null ? row : -1;
+    }
+
+    public boolean contains(String name) {
+        return rowsByName.containsKey(name);
+    }
+
+    // Number of entries still there
+    public int size() {
+        return count - removedCount;
+    }
+
+    public String getName(int row) {
+        return names[row];
+    }
+
+    public long getSize(int row) {
+        return sizes[row];
+    }
+
+    public long getModifiedTime(int row) {
+        return modifiedTimes[row];
+    }
+
+    public byte getType(int row) {
+        return types[row];
+    }
+
+    // Method to return the rows to show: those containing the filter text, ordered by a column or as listed
+    public int[] view(String filter, int sortColumn, boolean ascending) {
+        int[] rows = filter(filter.trim().toLowerCase(Locale.ROOT));
+        if (sortColumn != COLUMN_NONE) {
+            sort(rows, sortColumn, ascending);
+        }
+        return rows;
+    }
+
+    private int[] filter(String needle) {
+        int[] rows = new int[size()];
+        int shown = 0;
+
+        if (needle.length() >= 3) {
+            // Walk the shortest posting list of the needle's trigrams, checking the rest by name
+            IntList shortest = null;
+            ensureTrigrams();
+            for (int i = 0; i + 3 <= needle.length(); i++) {
+                IntList postings = trigrams.get(trigramKey(needle, i));
+                if (postings == null) {
+                    return new int[0];
+                }
+                if (shortest == null || postings.size < shortest.size) {
+                    shortest = postings;
+                }
+            }
+            for (int i = 0; i < shortest.size; i++) {
+                int row = shortest.values[i];
+                if (!removed[row] && names[row].toLowerCase(Locale.ROOT).contains(needle)) {
+                    rows[shown++] = row;
+                }
+            }
+        } else {
+            for (int row = 0; row < count; row++) {
+                if (!removed[row] && (needle.isEmpty() || names[row].toLowerCase(Locale.ROOT).contains(needle))) {
+                    rows[shown++] = row;
+                }
+            }
+        }
+        return shown == rows.length ? rows : Arrays.copyOf(rows, shown);
+    }
+
+    // Method to build the filter index now, e.g. on the listing thread, rather than on the first filter
+    public void indexNames() {
+        ensureTrigrams();
+    }
+
+    private void ensureTrigrams() {
+        if (trigrams != null) {
+            return;
+        }
+        trigrams = new HashMap<>();
+        for (int row = 0; row < count; row++) {
+            indexTrigrams(row);
+        }
+    }
+
+    private void indexTrigrams(int row) {
+        String name = names[row].toLowerCase(Locale.ROOT);
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            IntList postings = trigrams.computeIfAbsent(trigramKey(name, i), k -> new IntList());
+            // A row is listed once per trigram even if the trigram repeats, e.g. "aaaa"
+            if (postings.size == 0 || postings.values[postings.size - 1] != row) {
+                postings.add(row);
+            }
+        }
+    }
+
+    private static long trigramKey(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private void sort(int[] rows, int column, boolean ascending) {
+        RowComparator comparator;
+        switch (column) {
+            case COLUMN_SIZE:
+                comparator = (a, b) -> Long.compare(sizes[a], sizes[b]);
+                break;
+            case COLUMN_MODIFIED:
+                comparator = (a, b) -> Long.compare(modifiedTimes[a], modifiedTimes[b]);
+                break;
+            case COLUMN_TYPE:
+                comparator = (a, b) -> {
+                    int byType = Byte.compare(types[a], types[b]);
+                    return byType != 0 ? byType : String.CASE_INSENSITIVE_ORDER.compare(extension(names[a]), extension(names[b]));
+                };
+                break;
+            default:
+                comparator = (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]);
+                break;
+        }
+        // Equal values keep listing order, which is the order the folder gave
+        RowComparator ordered = ascending ? comparator : (a, b) -> comparator.compare(b, a);
+        mergeSort(rows, new int[rows.length], 0, rows.length, ordered);
+    }
+
+    // Stable merge sort of row numbers, so ties keep their order in both directions
+    private static void mergeSort(int[] rows, int[] buffer, int from, int to, RowComparator comparator) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && comparator.compare(rows[j], row) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle, comparator);
+        mergeSort(rows, buffer, middle, to, comparator);
+        if (comparator.compare(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    // Method to write the entries still there, for the listing cache
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (int row = 0; row < count; row++) {
+            if (!removed[row]) {
+                out.writeUTF(names[row]);
+                out.writeLong(sizes[row]);
+                out.writeLong(modifiedTimes[row]);
+                out.writeByte(types[row]);
+            }
+        }
+    }
+
+    // Method to read entries written by writeTo
+    public static DirectorySnapshot readFrom(DataInputStream in) throws IOException {
+        int entryCount = in.readInt();
+        DirectorySnapshot snapshot = new DirectorySnapshot(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            snapshot.put(in.readUTF(), in.readLong(), in.readLong(), in.readByte());
+        }
+        return snapshot;
+    }
+
+    // Method to return the text shown in the Type column
+    public static String typeName(byte type, String name) {
+        if (type == TYPE_FOLDER) {
+            return "Folder";
+        } else if (type == TYPE_UNKNOWN) {
+            return "";
+        } else if (type == TYPE_OTHER) {
+            return "Other";
+        }
+        String extension = extension(name);
+        return extension.isEmpty() ? "File" : extension.toUpperCase(Locale.ROOT) + " File";
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1) : "";
+    }
+}
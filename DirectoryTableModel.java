@@ -0,0 +1,539 @@
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.AbstractTableModel;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Table model for the entries of a folder with their size, modification time and type. The folder is
+// read into a DirectorySnapshot on a background thread one page at a time, and the next page is only
+// read once the table is scrolled close to the last row read, so a folder with 200k entries costs what
+// has been looked at. Rows are shown in the order the folder gives them until a column is sorted on;
+// sorting or filtering needs every entry, so the rest of the folder is read then. Filtering and sorting
+// are done by the snapshot and only swap the array of rows shown. For the destination folder the names
+// can be shown from the TicketFolderIndex first, while the attributes are read.
+//
+// The last complete listing of a folder is kept in the ListingCache and shown while the folder is listed
+// again, so a folder on a slow share has its entries on screen at once. Pages read since are merged into
+// it, and entries that are gone are dropped once the whole folder has been read. A status line says when
+// a cached listing is shown, and when the folder has not answered for a while.
+//
+// Changes reported by the watcher are read on a thread of their own, so they are not held up by a listing
+// waiting for the next page. A name the watcher reported since the folder was loaded is taken from the
+// watcher from then on, as pages read earlier may hold an older state of it.
+public class DirectoryTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    // Number of entries read from the folder per page
+    static final int PAGE_SIZE = 1000;
+
+    // How long a listing may take before the folder is reported as not responding
+    static final int LISTING_TIMEOUT_MILLIS = 10000;
+
+    private static final String[] COLUMN_NAMES = {"Name", "Size", "Modified", "Type"};
+
+    // Everything below is only touched on the EDT
+    private DirectorySnapshot snapshot = new DirectorySnapshot(0);
+    private int[] rows = new int[0];
+    private Path folder;
+    private String filter = "";
+    private int sortColumn = DirectorySnapshot.COLUMN_NONE;
+    private boolean ascending = true;
+    private long loadStartNanos;
+    private boolean firstPartShown = true;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    private String status = "";
+    private long cachedListingTime = DirectorySnapshot.UNKNOWN; // When the cached listing shown was taken
+    private int listedGeneration = -1; // Last load whose folder has answered with live entries
+    private boolean listingComplete = true;
+    private final java.util.List<ChangeListener> statusListeners = new ArrayList<>();
+    private ExecutorService loader = newLoader();
+    private Future<?> listing;
+
+    // Names the watcher reported since the last load, with their size, time and type, or null if deleted
+    private final Map<String, long[]> changesSinceLoad = new HashMap<>();
+
+    private final ExecutorService changeReader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "directory-table-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // How far the listing may read before it waits; set on the EDT, read by the listing thread
+    private final Object demandLock = new Object();
+    private volatile int wantedCount = PAGE_SIZE;
+    private volatile boolean wantAll = false;
+
+    private volatile boolean useTicketFolderIndex = false;
+
+    // Bumped on every load so listings and changes for an older folder are dropped
+    private volatile int generation = 0;
+
+    // Method to take the names of the shown folder from the ticket folder index when it is up to date
+    public void setUseTicketFolderIndex(boolean useTicketFolderIndex) {
+        this.useTicketFolderIndex = useTicketFolderIndex;
+    }
+
+    // Method to show the entries of a folder, replacing whatever was shown before
+    public void load(Path folder) {
+        int loadGeneration;
+        synchronized (demandLock) {
+            loadGeneration = ++generation;
+            wantedCount = PAGE_SIZE;
+            wantAll = needsAllEntries();
+            // A listing of the previous folder waiting for its next page gives up
+            demandLock.notifyAll();
+        }
+        this.folder = folder;
+        loadStartNanos = System.nanoTime();
+        firstPartShown = false;
+        listingComplete = false;
+        cachedListingTime = DirectorySnapshot.UNKNOWN;
+        changesSinceLoad.clear();
+        show(new DirectorySnapshot(0));
+        setStatus("Loading...");
+
+        // A listing stuck on an unreachable share would hold this one up, so it is left to finish on its own
+        if (listing != null && !listing.isDone()) {
+            loader.shutdown();
+            loader = newLoader();
+        }
+        startListingTimeout(loadGeneration);
+
+        listing = loader.submit(() -> {
+            ListingCache.Cached cached = ListingCache.read(folder);
+            if (cached != null) {
+                publishCached(loadGeneration, cached);
+            } else if (useTicketFolderIndex) {
+                TicketFolderIndex ticketFolderIndex = TicketFolderIndex.forDestination(folder);
+                java.util.List<String> indexedNames = ticketFolderIndex.rootNames();
+                if (indexedNames != null) {
+                    DirectorySnapshot named = new DirectorySnapshot(indexedNames.size());
+                    for (String name : indexedNames) {
+                        named.put(name, DirectorySnapshot.UNKNOWN, DirectorySnapshot.UNKNOWN, DirectorySnapshot.TYPE_UNKNOWN);
+                    }
+                    publish(loadGeneration, named);
+                } else {
+                    // List the folder as usual this time and have it indexed for the next one
+                    ticketFolderIndex.refreshRootNamesLater();
+                }
+            }
+
+            int[] publishedCount = {0};
+            DirectorySnapshot listed;
+            try {
+                listed = DirectorySnapshot.list(folder, partial -> {
+                    if (partial.size() - publishedCount[0] == PAGE_SIZE) {
+                        publishPage(loadGeneration, partial.copy(publishedCount[0]));
+                        publishedCount[0] = partial.size();
+                        awaitDemand(loadGeneration, partial.size());
+                    }
+                    // Give up on a folder that is no longer shown
+                    return loadGeneration == generation;
+                });
+            } catch (IOException e) {
+                publishFailure(loadGeneration, e);
+                return;
+            }
+            if (loadGeneration != generation) {
+                return;
+            }
+            if (listed.size() > PAGE_SIZE) {
+                listed.indexNames();
+            }
+            // Once published the snapshot belongs to the EDT, so the cache is written from a copy
+            DirectorySnapshot toCache = listed.copy();
+            publishListed(loadGeneration, listed);
+            ListingCache.write(folder, toCache);
+        });
+    }
+
+    // Method to hold the listing thread until the table wants more than has been read, or the folder changes
+    private void awaitDemand(int loadGeneration, int listedCount) {
+        synchronized (demandLock) {
+            while (loadGeneration == generation && !wantAll && listedCount >= wantedCount) {
+                try {
+                    demandLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Method to read pages until the given row is half a page from the end of what has been read
+    private void wantRowsUpTo(int row) {
+        int wanted = row + PAGE_SIZE / 2 + 1;
+        if (listingComplete || wantAll || wanted <= wantedCount) {
+            return;
+        }
+        synchronized (demandLock) {
+            wantedCount = wanted;
+            demandLock.notifyAll();
+        }
+    }
+
+    // Method to read the rest of the folder, which sorting and filtering need
+    void readAll() {
+        if (listingComplete || wantAll) {
+            return;
+        }
+        synchronized (demandLock) {
+            wantAll = true;
+            demandLock.notifyAll();
+        }
+        if (cachedListingTime == DirectorySnapshot.UNKNOWN) {
+            setStatus("Reading the rest of the folder...");
+        }
+    }
+
+    private boolean needsAllEntries() {
+        return sortColumn != DirectorySnapshot.COLUMN_NONE || !filter.trim().isEmpty();
+    }
+
+    private static ExecutorService newLoader() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "directory-table-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void startListingTimeout(int loadGeneration) {
+        javax.swing.Timer timeout = new javax.swing.Timer(LISTING_TIMEOUT_MILLIS, new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                if (loadGeneration != generation || listedGeneration == loadGeneration) {
+                    return;
+                }
+                // The listing keeps going, whatever it finds still replaces what is shown
+                if (cachedListingTime != DirectorySnapshot.UNKNOWN) {
+                    setStatus("Folder not responding, showing the listing from " + dateFormat.format(new Date(cachedListingTime)));
+                } else {
+                    setStatus("Folder not responding, still trying...");
+                }
+            }
+        });
+        timeout.setRepeats(false);
+        timeout.start();
+    }
+
+    private void publish(int loadGeneration, DirectorySnapshot listed) {
+        SwingUtilities.invokeLater(() -> {
+            if (loadGeneration != generation) {
+                return;
+            }
+            show(listed);
+            recordFirstPart();
+        });
+    }
+
+    private void publishCached(int loadGeneration, ListingCache.Cached cached) {
+        SwingUtilities.invokeLater(() -> {
+            if (loadGeneration != generation || listedGeneration == loadGeneration) {
+                return;
+            }
+            cachedListingTime = cached.listedTime;
+            show(cached.snapshot);
+            recordFirstPart();
+            setStatus("Showing the listing from " + dateFormat.format(new Date(cached.listedTime)) + ", updated as the folder is read");
+        });
+    }
+
+    // Method to add a page of the live listing to what is shown, leaving names the watcher has reported since
+    private void publishPage(int loadGeneration, DirectorySnapshot page) {
+        SwingUtilities.invokeLater(() -> {
+            if (loadGeneration != generation) {
+                return;
+            }
+            listedGeneration = loadGeneration;
+            for (int row = 0; row < page.size(); row++) {
+                String name = page.getName(row);
+                if (!changesSinceLoad.containsKey(name)) {
+                    snapshot.put(name, page.getSize(row), page.getModifiedTime(row), page.getType(row));
+                }
+            }
+            refreshRows();
+            recordFirstPart();
+            if (cachedListingTime == DirectorySnapshot.UNKNOWN) {
+                setStatus(wantAll ? "Reading the rest of the folder..." : "");
+            }
+        });
+    }
+
+    private void publishListed(int loadGeneration, DirectorySnapshot listed) {
+        SwingUtilities.invokeLater(() -> {
+            if (loadGeneration != generation) {
+                return;
+            }
+            listedGeneration = loadGeneration;
+            listingComplete = true;
+            cachedListingTime = DirectorySnapshot.UNKNOWN;
+            // The complete listing replaces what was shown, minus what the watcher reported while it was read
+            for (Map.Entry<String, long[]> change : changesSinceLoad.entrySet()) {
+                long[] attributes = change.getValue();
+                if (attributes == null) {
+                    listed.remove(change.getKey());
+                } else {
+                    listed.put(change.getKey(), attributes[0], attributes[1], (byte) attributes[2]);
+                }
+            }
+            show(listed);
+            recordFirstPart();
+            setStatus("");
+        });
+    }
+
+    private void publishFailure(int loadGeneration, IOException e) {
+        SwingUtilities.invokeLater(() -> {
+            if (loadGeneration != generation) {
+                return;
+            }
+            listedGeneration = loadGeneration;
+            listingComplete = true;
+            if (cachedListingTime != DirectorySnapshot.UNKNOWN) {
+                setStatus("Cannot read the folder, showing the listing from " + dateFormat.format(new Date(cachedListingTime)));
+            } else {
+                show(new DirectorySnapshot(0));
+                setStatus(e instanceof NoSuchFileException ? "Folder not found" : "Cannot read the folder: " + e.getMessage());
+            }
+        });
+    }
+
+    private void show(DirectorySnapshot shown) {
+        snapshot = shown;
+        refreshRows();
+    }
+
+    // A refresh counts until the first entries are on screen
+    private void recordFirstPart() {
+        if (!firstPartShown) {
+            firstPartShown = true;
+            SortMetrics.totals().listRefresh.recordSince(loadStartNanos);
+        }
+    }
+
+    // Method to return what the table is waiting for, or an empty string when it shows the live listing
+    public String getStatus() {
+        return status;
+    }
+
+    // Method to be told when the status changes
+    public void addStatusListener(ChangeListener listener) {
+        statusListeners.add(listener);
+    }
+
+    private void setStatus(String status) {
+        this.status = status;
+        ChangeEvent event = new ChangeEvent(this);
+        for (ChangeListener listener : statusListeners) {
+            listener.stateChanged(event);
+        }
+    }
+
+    private void refreshRows() {
+        rows = snapshot.view(filter, sortColumn, ascending);
+        fireTableDataChanged();
+    }
+
+    // Method to show only the entries whose name contains the text; the whole folder is read for it
+    public void setFilter(String filter) {
+        this.filter = filter;
+        if (needsAllEntries()) {
+            readAll();
+        }
+        refreshRows();
+    }
+
+    // Method to sort by a column, or reverse the order if it is sorted by that column already; the whole folder is read for it
+    public void sortBy(int column) {
+        if (column == sortColumn) {
+            ascending = !ascending;
+        } else {
+            sortColumn = column;
+            ascending = true;
+        }
+        readAll();
+        refreshRows();
+    }
+
+    public int getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    // Method to return the folder currently shown, or null before the first load
+    public Path getFolder() {
+        return folder;
+    }
+
+    // Method to return the name of the entry in a row of the table
+    public String getNameAt(int row) {
+        return snapshot.getName(rows[row]);
+    }
+
+    public boolean contains(String name) {
+        return snapshot.contains(name);
+    }
+
+    // Method to add and remove entries without reloading the folder; attributes of new entries are read in the background
+    public void applyChanges(Collection<String> created, Collection<String> deleted) {
+        Path changedFolder = folder;
+        if (changedFolder == null || (created.isEmpty() && deleted.isEmpty())) {
+            return;
+        }
+        int changeGeneration = generation;
+        java.util.List<String> createdNames = new ArrayList<>(created);
+        java.util.List<String> deletedNames = new ArrayList<>(deleted);
+
+        changeReader.execute(() -> {
+            java.util.List<BasicFileAttributes> createdAttrs = readAttributes(changedFolder, createdNames);
+
+            SwingUtilities.invokeLater(() -> {
+                if (changeGeneration != generation) {
+                    return;
+                }
+                for (String name : deletedNames) {
+                    snapshot.remove(name);
+                    changesSinceLoad.put(name, null);
+                }
+                for (int i = 0; i < createdNames.size(); i++) {
+                    BasicFileAttributes attrs = createdAttrs.get(i);
+                    if (attrs != null) {
+                        snapshot.put(createdNames.get(i), attrs);
+                    } else {
+                        snapshot.put(createdNames.get(i), DirectorySnapshot.UNKNOWN, DirectorySnapshot.UNKNOWN, DirectorySnapshot.TYPE_UNKNOWN);
+                    }
+                    recordChange(createdNames.get(i));
+                }
+                refreshRows();
+            });
+        });
+    }
+
+    // Method to show the new size and time of entries that were written to. Rows already shown are updated
+    // where they are, unless the table is sorted by a column that changed.
+    public void updateEntries(Collection<String> modified) {
+        Path changedFolder = folder;
+        if (changedFolder == null || modified.isEmpty()) {
+            return;
+        }
+        int changeGeneration = generation;
+        java.util.List<String> modifiedNames = new ArrayList<>(modified);
+
+        changeReader.execute(() -> {
+            java.util.List<BasicFileAttributes> modifiedAttrs = readAttributes(changedFolder, modifiedNames);
+
+            SwingUtilities.invokeLater(() -> {
+                if (changeGeneration != generation) {
+                    return;
+                }
+                Set<Integer> updatedRows = new HashSet<>();
+                boolean added = false;
+                for (int i = 0; i < modifiedNames.size(); i++) {
+                    BasicFileAttributes attrs = modifiedAttrs.get(i);
+                    if (attrs == null) {
+                        // Deleted since, the delete event settles it
+                        continue;
+                    }
+                    String name = modifiedNames.get(i);
+                    boolean shown = snapshot.contains(name);
+                    snapshot.put(name, attrs);
+                    recordChange(name);
+                    if (shown) {
+                        updatedRows.add(snapshot.rowOf(name));
+                    } else {
+                        added = true;
+                    }
+                }
+
+                if (added || sortColumn == DirectorySnapshot.COLUMN_SIZE || sortColumn == DirectorySnapshot.COLUMN_MODIFIED
+                        || sortColumn == DirectorySnapshot.COLUMN_TYPE) {
+                    refreshRows();
+                    return;
+                }
+                for (int row = 0; row < rows.length; row++) {
+                    if (updatedRows.contains(rows[row])) {
+                        fireTableRowsUpdated(row, row);
+                    }
+                }
+            });
+        });
+    }
+
+    // Method to read the attributes of entries of the folder, null for one that cannot be read
+    private static java.util.List<BasicFileAttributes> readAttributes(Path folder, java.util.List<String> names) {
+        java.util.List<BasicFileAttributes> attributes = new ArrayList<>(names.size());
+        for (String name : names) {
+            try {
+                attributes.add(Files.readAttributes(folder.resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+            } catch (IOException e) {
+                // Gone again already, or not readable; a later event settles it
+                attributes.add(null);
+            }
+        }
+        return attributes;
+    }
+
+    // Method to keep a change from the watcher, so a listing read before it does not undo it
+    private void recordChange(String name) {
+        int row = snapshot.rowOf(name);
+        changesSinceLoad.put(name, new long[]{snapshot.getSize(row), snapshot.getModifiedTime(row), snapshot.getType(row)});
+    }
+
+    // Method to add a single entry without reloading the folder
+    public void addName(String name) {
+        applyChanges(Collections.singletonList(name), Collections.emptyList());
+    }
+
+    // Method to remove a single entry without reloading the folder
+    public void removeName(String name) {
+        applyChanges(Collections.emptyList(), Collections.singletonList(name));
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        if (column != sortColumn) {
+            return COLUMN_NAMES[column];
+        }
+        return COLUMN_NAMES[column] + (ascending ? " \u25B2" : " \u25BC");
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        // The table only asks for the rows it paints, so this is where scrolling down asks for the next page
+        wantRowsUpTo(row);
+        int entry = rows[row];
+        switch (column) {
+            case DirectorySnapshot.COLUMN_NAME:
+                return snapshot.getName(entry);
+            case DirectorySnapshot.COLUMN_SIZE:
+                long size = snapshot.getSize(entry);
+                return snapshot.getType(entry) == DirectorySnapshot.TYPE_FILE && size >= 0 ? SortPlan.formatBytes(size) : "";
+            case DirectorySnapshot.COLUMN_MODIFIED:
+                long modifiedTime = snapshot.getModifiedTime(entry);
+                return modifiedTime != DirectorySnapshot.UNKNOWN ? dateFormat.format(new Date(modifiedTime)) : "";
+            default:
+                return DirectorySnapshot.typeName(snapshot.getType(entry), snapshot.getName(entry));
+        }
+    }
+}
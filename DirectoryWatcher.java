@@ -0,0 +1,174 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+// Watches folders for entries being created, deleted or, if asked for, written to, and reports the changes
+// in batches. Events that arrive close together are coalesced, a rename shows up as a delete plus a create.
+public class DirectoryWatcher {
+
+    // Callback for folder changes, called on the watcher thread
+    public interface Listener {
+        void entriesChanged(Path folder, Set<String> created, Set<String> deleted);
+
+        // Entries that were there before the batch and have been written to since, only with reportModified
+        void entriesModified(Path folder, Set<String> modified);
+
+        // The event queue overflowed, so the folder has to be listed again
+        void overflow(Path folder);
+    }
+
+    // How long to keep collecting events before reporting a batch
+    private static final long COALESCE_MILLIS = 200;
+
+    private final Listener listener;
+    private final boolean reportModified;
+    private final WatchService watchService;
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private final Thread watchThread;
+
+    // Changes collected for one folder since the last batch
+    private static class PendingChanges {
+        final Set<String> created = new LinkedHashSet<>();
+        final Set<String> deleted = new LinkedHashSet<>();
+        final Set<String> modified = new LinkedHashSet<>();
+        boolean overflow = false;
+    }
+
+    public DirectoryWatcher(Listener listener) throws IOException {
+        this(listener, false);
+    }
+
+    // With reportModified, entries that are written to are reported too, so a caller can show their new
+    // size or tell when a file has stopped changing
+    public DirectoryWatcher(Listener listener, boolean reportModified) throws IOException {
+        this.listener = listener;
+        this.reportModified = reportModified;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        watchThread = new Thread(this::watchLoop, "directory-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    // Method to start watching a folder, returns false if the folder cannot be watched
+    public boolean watch(Path folder) {
+        Path key = folder.toAbsolutePath().normalize();
+        synchronized (this) {
+            if (keys.containsKey(key)) {
+                return true;
+            }
+        }
+
+        // Registered without holding the lock, on a slow share this can take a while and isWatching should not wait for it
+        WatchKey watchKey;
+        try {
+            if (reportModified) {
+                watchKey = key.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            } else {
+                watchKey = key.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+        synchronized (this) {
+            // Registering a folder twice gives the same key, so a racing call needs no undoing
+            keys.put(key, watchKey);
+        }
+        return true;
+    }
+
+    // Method to stop watching a folder
+    public synchronized void unwatch(Path folder) {
+        WatchKey key = keys.remove(folder.toAbsolutePath().normalize());
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    public synchronized boolean isWatching(Path folder) {
+        WatchKey key = keys.get(folder.toAbsolutePath().normalize());
+        return key != null && key.isValid();
+    }
+
+    // Method to stop the watcher thread and release the watch service
+    public void close() {
+        watchThread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                Map<Path, PendingChanges> batch = new LinkedHashMap<>();
+
+                // Wait for the first event, then keep collecting until the batch window closes
+                WatchKey key = watchService.take();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COALESCE_MILLIS);
+                while (key != null) {
+                    collect(key, batch);
+                    long remaining = deadline - System.nanoTime();
+                    key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                }
+
+                for (Map.Entry<Path, PendingChanges> entry : batch.entrySet()) {
+                    PendingChanges changes = entry.getValue();
+                    if (changes.overflow) {
+                        listener.overflow(entry.getKey());
+                    } else {
+                        if (!changes.created.isEmpty() || !changes.deleted.isEmpty()) {
+                            listener.entriesChanged(entry.getKey(), changes.created, changes.deleted);
+                        }
+                        if (!changes.modified.isEmpty()) {
+                            listener.entriesModified(entry.getKey(), changes.modified);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher was closed
+        }
+    }
+
+    private void collect(WatchKey key, Map<Path, PendingChanges> batch) {
+        Path folder = (Path) key.watchable();
+        PendingChanges changes = batch.computeIfAbsent(folder, k -> new PendingChanges());
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changes.overflow = true;
+                continue;
+            }
+
+            String name = ((Path) event.context()).getFileName().toString();
+            // Only the last event for a name matters within one batch, and a new entry is only reported as created
+            if (event.kind() == ENTRY_CREATE) {
+                changes.deleted.remove(name);
+                changes.modified.remove(name);
+                changes.created.add(name);
+            } else if (event.kind() == ENTRY_MODIFY) {
+                if (!changes.created.contains(name)) {
+                    changes.modified.add(name);
+                }
+            } else if (event.kind() == ENTRY_DELETE) {
+                changes.created.remove(name);
+                changes.modified.remove(name);
+                changes.deleted.add(name);
+            }
+        }
+
+        if (!key.reset()) {
+            // The folder itself went away
+            synchronized (this) {
+                keys.remove(folder);
+            }
+            changes.overflow = true;
+        }
+    }
+}
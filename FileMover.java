@@ -0,0 +1,231 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Moves files and folders. Within one volume a move is an atomic rename; across volumes the data is
+// streamed in chunks through a buffer, optionally throttled, with a CRC32 taken on the way. The source
+// is only deleted after the copy has been flushed and read back with the same checksum.
+public class FileMover {
+
+    // Callback for copy progress, called on the thread doing the move
+    public interface ProgressListener {
+        void bytesCopied(Path source, long bytes);
+    }
+
+    // Bytes read and written per step
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    // One copy buffer per thread doing moves
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+    private static final ProgressListener NO_PROGRESS = (source, bytes) -> { };
+
+    // Bytes per second for cross-volume copies, 0 for no limit
+    private final long bandwidthLimit;
+
+    // File store of each folder that was looked up, getFileStore can be slow on network drives
+    private final ConcurrentHashMap<Path, FileStore> fileStores = new ConcurrentHashMap<>();
+
+    public FileMover(long bandwidthLimit) {
+        this.bandwidthLimit = Math.max(0, bandwidthLimit);
+    }
+
+    public void move(Path source, Path destination) throws IOException {
+        move(source, destination, NO_PROGRESS);
+    }
+
+    // Method to move a file or folder onto the destination path, replacing an empty placeholder there
+    public void move(Path source, Path destination, ProgressListener listener) throws IOException {
+        if (isSameStore(source, destination)) {
+            rename(source, destination);
+        } else if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+            copyDirectoryThenDelete(source, destination, listener);
+        } else {
+            copyFile(source, destination, listener);
+            Files.delete(source);
+        }
+    }
+
+    // Method to tell whether source and destination are on the same volume, so a rename is enough
+    public boolean isSameStore(Path source, Path destination) throws IOException {
+        Path sourceFolder = source.toAbsolutePath().getParent();
+        Path destinationFolder = destination.toAbsolutePath().getParent();
+        if (sourceFolder == null || destinationFolder == null) {
+            return true;
+        }
+        return fileStore(sourceFolder).equals(fileStore(destinationFolder));
+    }
+
+    private FileStore fileStore(Path folder) throws IOException {
+        FileStore store = fileStores.get(folder);
+        if (store == null) {
+            store = Files.getFileStore(folder);
+            fileStores.put(folder, store);
+        }
+        return store;
+    }
+
+    private void rename(Path source, Path destination) throws IOException {
+        // Not every platform renames a folder over an existing empty one, so drop the placeholder first
+        if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+            Files.deleteIfExists(destination);
+        }
+
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Method to copy a folder tree file by file, deleting the source tree only after everything was copied.
+    // A copy that fails is removed again, down to the placeholder, so the next run does not find a half
+    // copied folder under the name. Once the copy is complete it is kept: a source that cannot be deleted
+    // entirely fails the move, but the copy in the ticket folder is whole.
+    private void copyDirectoryThenDelete(Path source, Path destination, ProgressListener listener) throws IOException {
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(destination.resolve(source.relativize(dir).toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    copyFile(file, destination.resolve(source.relativize(file).toString()), listener);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            try {
+                deleteTree(destination, false);
+            } catch (IOException cleanupFailure) {
+                e.addSuppressed(cleanupFailure);
+            }
+            throw e;
+        }
+
+        try {
+            deleteTree(source, true);
+        } catch (IOException e) {
+            // The copy stays, whole; the caller reports what is left of the source, the next sort finds it again
+            throw new IOException("Copied to " + destination + ", but " + source + " could not be removed entirely: " + e, e);
+        }
+    }
+
+    // Method to delete everything below a folder, and the folder itself if asked to
+    private static void deleteTree(Path folder, boolean includingFolder) throws IOException {
+        if (!Files.exists(folder, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                if (includingFolder || !dir.equals(folder)) {
+                    Files.delete(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Method to stream one file to the destination and check the copy before the caller deletes the source
+    private void copyFile(Path source, Path destination, ProgressListener listener) throws IOException {
+        BasicFileAttributes before = Files.readAttributes(source, BasicFileAttributes.class);
+        long startTime = System.nanoTime();
+        ByteBuffer buffer = BUFFERS.get();
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            CRC32 copied = new CRC32();
+
+            while (position < size) {
+                buffer.clear();
+                int read = in.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                buffer.flip();
+                copied.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + buffer.position());
+                }
+                position += read;
+                listener.bytesCopied(source, read);
+                throttle(position, startTime);
+            }
+
+            // Make sure the data is on the destination disk before anything is deleted
+            out.force(true);
+
+            if (out.size() != size || position != size) {
+                throw new IOException("Copy of " + source + " is incomplete: " + out.size() + " of " + size + " bytes");
+            }
+            // Read back what was written, so a bad write on the destination is caught while the source is still there
+            if (checksum(out, buffer) != copied.getValue()) {
+                throw new IOException("Copy of " + source + " does not match the original");
+            }
+        }
+
+        // A file that changed while it was copied must not be deleted
+        BasicFileAttributes after = Files.readAttributes(source, BasicFileAttributes.class);
+        if (after.size() != before.size() || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+            Files.deleteIfExists(destination);
+            throw new IOException(source + " changed while it was being copied");
+        }
+
+        Files.setLastModifiedTime(destination, before.lastModifiedTime());
+    }
+
+    // Method to compute the CRC32 of a whole file from the start
+    private static long checksum(FileChannel channel, ByteBuffer buffer) throws IOException {
+        CRC32 checksum = new CRC32();
+        long position = 0;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return checksum.getValue();
+            }
+            buffer.flip();
+            checksum.update(buffer);
+            position += read;
+        }
+    }
+
+    // Method to sleep long enough to keep the average copy rate under the bandwidth limit
+    private void throttle(long bytesCopied, long startTime) throws InterruptedIOException {
+        if (bandwidthLimit == 0) {
+            return;
+        }
+
+        long expectedNanos = (long) (bytesCopied * (double) TimeUnit.SECONDS.toNanos(1) / bandwidthLimit);
+        long aheadNanos = expectedNanos - (System.nanoTime() - startTime);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Copy interrupted");
+            }
+        }
+    }
+}
@@ -16,18 +16,66 @@ public class FileSorter extends JFrame {
 
     // Declare settings variables
     private boolean darkMode = false; // Default to light mode
+    int sortThreadCount = 4; // Number of worker threads used to move files during a sort
+    String ticketPattern = ""; // Custom ticket number pattern, empty for 6 consecutive digits
+    String routingRules = ""; // Routing rules, one per line, used instead of the ticket pattern when set
+    Deduplicator.Mode deduplicationMode = Deduplicator.Mode.OFF; // What to do with files already in their ticket folder
+    int bandwidthLimit = 0; // MB/s for copies between drives, 0 for no limit
+    int walkMaxDepth = 0; // Folder levels below the source folder a sort looks into, 0 for no limit
+    String excludePatterns = ""; // Glob patterns separated by ';' for entries a sort leaves alone
+    boolean skipHiddenFiles = true; // Leave hidden and system files and folders in the source alone
+    int settleSeconds = IngestionGate.DEFAULT_SETTLE_SECONDS; // Seconds a file must go unchanged before a sort moves it
+    int archiveAfterDays = 0; // Days a ticket folder must go untouched before it is packed into a zip, 0 to keep folders
+    int contentScanKb = 0; // Kilobytes read from the start of a file whose name has no ticket number, 0 to only look at names
+
+    static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
     String defaultSourceLocation;
     String defaultDestinationLocation;
 
+    // How long a retry of deferred items waits for a running batch sort before looking again
+    private static final int DEFERRED_RETRY_BUSY_MILLIS = 5000;
+
+    // Visible size of each file table before the window is resized
+    private static final Dimension FILE_TABLE_SIZE = new Dimension(360, 240);
+
     // Registry key for storing settings
-    private static final String REGISTRY_KEY = "SOFTWARE\\FileSorter";
+    static final String REGISTRY_KEY = "SOFTWARE\\FileSorter";
 
     // Other components declaration
     JTextField sourceTextField;
     JTextField destinationTextField;
-    JList<String> sourceFileList;
-    JList<String> destinationFileList;
-    private Set<String> allowedExtensions = new HashSet<>();
+    JTable sourceFileTable;
+    JTable destinationFileTable;
+    JButton sortButton;
+    JButton previewButton;
+    JButton undoButton;
+
+    // Background sort state
+    private SortWorker sortWorker;
+    private SortScheduler batchScheduler; // Set while a batch sort runs, only touched on the EDT
+
+    // Files the last sorts left because they were still being written, and the folders they were sorted between
+    private IngestionGate ingestionGate;
+    private String ingestionGateSourcePath;
+    private String ingestionGateDestinationPath;
+    private javax.swing.Timer deferredRetryTimer;
+
+    // Remembers which files were already read without finding a ticket number, null until a sort needs it
+    private ContentScanner contentScanner;
+
+    // Set while idle ticket folders are being archived, only touched on the EDT
+    private TicketArchiver ticketArchiver;
+
+    // The last archive run, which sorts wait for so they never see a ticket folder it is about to delete
+    private volatile java.util.concurrent.Future<?> archiving;
+
+    // Keeps the file lists in step with the folders they show, null if watching is not available
+    private DirectoryWatcher directoryWatcher;
+    private final java.util.concurrent.ExecutorService watchRegistrar = java.util.concurrent.Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "watch-registrar");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public FileSorter() {
         super("File Sorter");
@@ -39,8 +87,8 @@ public class FileSorter extends JFrame {
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(5, 5, 5, 5);
 
-        // Load settings from preferences file
-        loadPreferences();
+        // Load settings from the registry, once, before anything is built from them
+        loadSettings();
 
         // Components for source folder
         JLabel sourceLabel = new JLabel("Source Folder:");
@@ -53,24 +101,37 @@ public class FileSorter extends JFrame {
         destinationTextField.setBackground(Color.DARK_GRAY);
         JButton destinationBrowseButton = new JButton("Browse");
 
-        // JList for source files
-        DefaultListModel<String> sourceListModel = new DefaultListModel<>();
-        sourceFileList = new JList<>(sourceListModel);
-        JScrollPane sourceScrollPane = new JScrollPane(sourceFileList);
+        // Table for source files, with a filter field above it
+        DirectoryTableModel sourceListModel = new DirectoryTableModel();
+        sourceFileTable = createFileTable(sourceListModel);
+        JPanel sourceScrollPane = createFileBrowser(sourceFileTable, sourceListModel);
 
-        // JList for destination files
-        DefaultListModel<String> destinationListModel = new DefaultListModel<>();
-        destinationFileList = new JList<>(destinationListModel);
-        JScrollPane destinationScrollPane = new JScrollPane(destinationFileList);
+        // Table for destination files
+        DirectoryTableModel destinationListModel = new DirectoryTableModel();
+        destinationListModel.setUseTicketFolderIndex(true); // The destination holds thousands of ticket folders
+        destinationFileTable = createFileTable(destinationListModel);
+        JPanel destinationScrollPane = createFileBrowser(destinationFileTable, destinationListModel);
 
         // Button to move selected files or folders
         JButton moveButton = new JButton("Move");
         moveButton.setPreferredSize(new Dimension(100, 30));
 
         // Button to sort files
-        JButton sortButton = new JButton("Sort Files");
+        sortButton = new JButton("Sort Files");
         sortButton.setPreferredSize(new Dimension(100, 30));
 
+        // Button to preview a sort without moving anything
+        previewButton = new JButton("Preview");
+        previewButton.setPreferredSize(new Dimension(100, 30));
+
+        // Button to put the items of the last sort back
+        undoButton = new JButton("Undo Sort");
+        undoButton.setPreferredSize(new Dimension(100, 30));
+
+        // Button to sort several source folders at once
+        JButton batchSortButton = new JButton("Batch Sort");
+        batchSortButton.setPreferredSize(new Dimension(100, 30));
+
         // Button to open settings
         JButton settingsButton = new JButton("Settings");
 
@@ -100,10 +161,6 @@ public class FileSorter extends JFrame {
             }
         });
 
-        // Update file lists for default source and destination paths
-        updateFileList(new File(sourceTextField.getText()), sourceListModel);
-        updateFileList(new File(destinationTextField.getText()), destinationListModel);
-
         // Action listener for the move button
         moveButton.addActionListener(new ActionListener() {
             @Override
@@ -120,6 +177,30 @@ public class FileSorter extends JFrame {
             }
         });
 
+        // Action listener for the preview button
+        previewButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                previewSort();
+            }
+        });
+
+        // Action listener for the undo button
+        undoButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undoLastSort();
+            }
+        });
+
+        // Action listener for the batch sort button
+        batchSortButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                openBatchSort();
+            }
+        });
+
         // Adding components to the frame
         gbc.gridx = 0;
         gbc.gridy = 0;
@@ -159,6 +240,10 @@ public class FileSorter extends JFrame {
         gbc.weightx = 1;
         add(destinationScrollPane, gbc);
 
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        add(previewButton, gbc);
+
         gbc.gridx = 1;
         gbc.gridy = 3;
         add(sortButton, gbc);
@@ -167,13 +252,18 @@ public class FileSorter extends JFrame {
         gbc.gridy = 3;
         add(settingsButton, gbc);
 
+        gbc.gridx = 3;
+        gbc.gridy = 3;
+        add(undoButton, gbc);
+
+        gbc.gridx = 0;
+        gbc.gridy = 4;
+        add(batchSortButton, gbc);
+
         // Adjusting the layout
         pack();
         setLocationRelativeTo(null); // Center the frame
 
-        // Load settings from the registry
-        loadSettings();
-
         // Apply initial dark mode setting
         updateDarkMode();
     }
@@ -182,7 +272,7 @@ public class FileSorter extends JFrame {
     private void openSettings() {
         JFrame settingsFrame = new JFrame("Settings");
         settingsFrame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-        settingsFrame.setSize(600, 200);
+        settingsFrame.setSize(600, 640);
 
         // Create components for settings window (e.g., checkboxes, text fields)
         JCheckBox darkModeCheckBox = new JCheckBox("Dark Mode");
@@ -206,6 +296,35 @@ public class FileSorter extends JFrame {
         JButton destinationBrowseButton = new JButton("Browse");
         destinationBrowseButton.setForeground(Color.WHITE);
         destinationBrowseButton.setBackground(Color.DARK_GRAY);
+        JSpinner sortThreadCountSpinner = new JSpinner(new SpinnerNumberModel(sortThreadCount, 1, 64, 1));
+        JSpinner bandwidthLimitSpinner = new JSpinner(new SpinnerNumberModel(bandwidthLimit, 0, 10000, 1));
+        bandwidthLimitSpinner.setToolTipText("Maximum copy speed in MB/s when moving between drives, 0 for no limit");
+        JTextField ticketPatternField = new JTextField(ticketPattern);
+        ticketPatternField.setToolTipText("Regular expression for ticket numbers, group 1 is used if present. Leave empty for 6 consecutive digits.");
+        String[] deduplicationChoices = {"Keep as numbered copies", "Drop duplicates", "Hard link duplicates"};
+        JComboBox<String> deduplicationComboBox = new JComboBox<>(deduplicationChoices);
+        deduplicationComboBox.setSelectedIndex(deduplicationMode.ordinal());
+        deduplicationComboBox.setToolTipText("What to do with a file whose content is already in its ticket folder");
+        JTextArea routingRulesArea = new JTextArea(routingRules, 8, 40);
+        routingRulesArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        routingRulesArea.setToolTipText("<html>One rule per line, first match wins, e.g.<br>"
+                + "DIGITS 6 -&gt; {match}<br>PREFIX ACME -&gt; ACME<br>DATE -&gt; {match}<br>"
+                + "EXTENSION mp4,trec -&gt; Recordings<br>SIZE &gt;1GB -&gt; Large<br>REGEX Case-(\\d+) -&gt; {match}<br>"
+                + "Leave empty to use the ticket pattern.</html>");
+        JScrollPane routingRulesScrollPane = new JScrollPane(routingRulesArea);
+        JSpinner walkMaxDepthSpinner = new JSpinner(new SpinnerNumberModel(walkMaxDepth, 0, 1000, 1));
+        walkMaxDepthSpinner.setToolTipText("Folder levels below the source folder to look into, 1 for just the source folder, 0 for no limit");
+        JCheckBox skipHiddenCheckBox = new JCheckBox("Skip hidden and system files");
+        skipHiddenCheckBox.setSelected(skipHiddenFiles);
+        skipHiddenCheckBox.setOpaque(false);
+        JSpinner settleSecondsSpinner = new JSpinner(new SpinnerNumberModel(settleSeconds, 0, 3600, 1));
+        settleSecondsSpinner.setToolTipText("Seconds a file must go unchanged before it is sorted; files another program has open are always left for later");
+        JSpinner archiveAfterDaysSpinner = new JSpinner(new SpinnerNumberModel(archiveAfterDays, 0, 3650, 1));
+        archiveAfterDaysSpinner.setToolTipText("Pack ticket folders nobody has touched for this many days into one zip each, 0 to keep them as folders");
+        JSpinner contentScanKbSpinner = new JSpinner(new SpinnerNumberModel(contentScanKb, 0, 10240, 16));
+        contentScanKbSpinner.setToolTipText("Look for the ticket number in the first this many KB of a file whose name has none, and in the entry names of a zip; 0 to only look at names. Not used with routing rules");
+        JTextField excludePatternsField = new JTextField(excludePatterns);
+        excludePatternsField.setToolTipText("Glob patterns separated by ';', matched against names and paths below the source folder, e.g. *.tmp;Archive;Old/**");
         JButton saveButton = new JButton("Save");
 
         // Action listeners for browse buttons
@@ -226,14 +345,56 @@ public class FileSorter extends JFrame {
         saveButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
+                // Reject a ticket pattern that does not compile
+                try {
+                    TicketMatcher.fromSetting(ticketPatternField.getText());
+                } catch (PatternSyntaxException ex) {
+                    JOptionPane.showMessageDialog(settingsFrame, "Invalid ticket pattern: " + ex.getDescription(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                // Reject routing rules that do not parse, or that are too long to store
+                try {
+                    RoutingRules.parse(routingRulesArea.getText());
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(settingsFrame, "Invalid routing rules: " + ex.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                try {
+                    WalkFilter.fromSettings(0, excludePatternsField.getText(), false);
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(settingsFrame, "Invalid exclude pattern: " + ex.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (routingRulesArea.getText().trim().length() > Preferences.MAX_VALUE_LENGTH) {
+                    JOptionPane.showMessageDialog(settingsFrame, "The routing rules may be at most " + Preferences.MAX_VALUE_LENGTH + " characters long.",
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
                 // Update settings variables with new values
                 darkMode = darkModeCheckBox.isSelected();
                 defaultSourceLocation = defaultSourceLocationField.getText();
                 defaultDestinationLocation = defaultDestinationLocationField.getText();
+                sortThreadCount = (Integer) sortThreadCountSpinner.getValue();
+                ticketPattern = ticketPatternField.getText().trim();
+                routingRules = routingRulesArea.getText().trim();
+                deduplicationMode = Deduplicator.Mode.values()[deduplicationComboBox.getSelectedIndex()];
+                bandwidthLimit = (Integer) bandwidthLimitSpinner.getValue();
+                walkMaxDepth = (Integer) walkMaxDepthSpinner.getValue();
+                excludePatterns = excludePatternsField.getText().trim();
+                skipHiddenFiles = skipHiddenCheckBox.isSelected();
+                settleSeconds = (Integer) settleSecondsSpinner.getValue();
+                archiveAfterDays = (Integer) archiveAfterDaysSpinner.getValue();
+                contentScanKb = (Integer) contentScanKbSpinner.getValue();
+                contentScanner = null; // Files already read are read again with the new pattern and budget
+                ingestionGate = null; // Deferred files are found again by the next sort, with the new settle time
 
                 // Save settings to the registry
                 saveSettings();
-                savePreferences(); // Save preferences to file
 
                 // Close settings window
                 settingsFrame.dispose();
@@ -289,9 +450,129 @@ public class FileSorter extends JFrame {
         gbc.weightx = 0.0;
         panel.add(destinationBrowseButton, gbc);
 
-        // Save button
+        // Sort thread count label and spinner
+        gbc.gridx = 0;
+        gbc.gridy = 3;
+        panel.add(new JLabel("Sort Threads:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 3;
+        panel.add(sortThreadCountSpinner, gbc);
+
+        // Bandwidth limit label and spinner
         gbc.gridx = 2;
         gbc.gridy = 3;
+        panel.add(new JLabel("Copy Limit (MB/s):"), gbc);
+
+        gbc.gridx = 3;
+        gbc.gridy = 3;
+        panel.add(bandwidthLimitSpinner, gbc);
+
+        // Ticket pattern label and text field
+        gbc.gridx = 0;
+        gbc.gridy = 4;
+        panel.add(new JLabel("Ticket Pattern:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 4;
+        gbc.gridwidth = 2;
+        gbc.weightx = 1.0;
+        panel.add(ticketPatternField, gbc);
+
+        // Duplicate handling label and combo box
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        gbc.gridwidth = 1;
+        gbc.weightx = 0.0;
+        panel.add(new JLabel("Duplicates:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 5;
+        panel.add(deduplicationComboBox, gbc);
+
+        // Settle time label and spinner
+        gbc.gridx = 2;
+        gbc.gridy = 5;
+        panel.add(new JLabel("Settle Time (s):"), gbc);
+
+        gbc.gridx = 3;
+        gbc.gridy = 5;
+        panel.add(settleSecondsSpinner, gbc);
+
+        // Walk depth label, spinner and hidden files checkbox
+        gbc.gridx = 0;
+        gbc.gridy = 6;
+        gbc.gridwidth = 1;
+        gbc.weightx = 0.0;
+        panel.add(new JLabel("Max Depth:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 6;
+        panel.add(walkMaxDepthSpinner, gbc);
+
+        gbc.gridx = 2;
+        gbc.gridy = 6;
+        gbc.gridwidth = 2;
+        panel.add(skipHiddenCheckBox, gbc);
+
+        // Exclude patterns label and text field
+        gbc.gridx = 0;
+        gbc.gridy = 7;
+        gbc.gridwidth = 1;
+        panel.add(new JLabel("Exclude:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 7;
+        gbc.gridwidth = 3;
+        gbc.weightx = 1.0;
+        panel.add(excludePatternsField, gbc);
+
+        // Routing rules label and text area
+        gbc.gridx = 0;
+        gbc.gridy = 8;
+        gbc.gridwidth = 1;
+        gbc.weightx = 0.0;
+        gbc.anchor = GridBagConstraints.NORTHWEST;
+        panel.add(new JLabel("Routing Rules:"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 8;
+        gbc.gridwidth = 3;
+        gbc.weightx = 1.0;
+        gbc.weighty = 1.0;
+        gbc.fill = GridBagConstraints.BOTH;
+        panel.add(routingRulesScrollPane, gbc);
+
+        // Archive age label and spinner
+        gbc.gridx = 0;
+        gbc.gridy = 9;
+        gbc.gridwidth = 1;
+        gbc.weightx = 0.0;
+        gbc.weighty = 0.0;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.anchor = GridBagConstraints.WEST;
+        panel.add(new JLabel("Archive After (days):"), gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy = 9;
+        panel.add(archiveAfterDaysSpinner, gbc);
+
+        // Content scan label and spinner
+        gbc.gridx = 2;
+        gbc.gridy = 9;
+        panel.add(new JLabel("Scan Content (KB):"), gbc);
+
+        gbc.gridx = 3;
+        gbc.gridy = 9;
+        panel.add(contentScanKbSpinner, gbc);
+
+        // Save button
+        gbc.gridx = 2;
+        gbc.gridy = 10;
+        gbc.weighty = 0.0;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.gridwidth = 1;
+        gbc.weightx = 0.0;
         gbc.gridwidth = 1;
         gbc.weightx = 0.0;
         gbc.anchor = GridBagConstraints.EAST;
@@ -301,18 +582,34 @@ public class FileSorter extends JFrame {
         if (darkMode) {
             panel.setBackground(Color.BLACK);
             darkModeCheckBox.setForeground(Color.WHITE);
+            skipHiddenCheckBox.setForeground(Color.WHITE);
+            excludePatternsField.setBackground(Color.BLACK);
+            excludePatternsField.setForeground(Color.WHITE);
             defaultSourceLocationField.setBackground(Color.BLACK);
             defaultDestinationLocationField.setBackground(Color.BLACK);
+            ticketPatternField.setBackground(Color.BLACK);
+            routingRulesArea.setBackground(Color.BLACK);
+            routingRulesArea.setForeground(Color.WHITE);
+            routingRulesArea.setCaretColor(Color.WHITE);
             defaultSourceLocationField.setForeground(Color.WHITE);
+            ticketPatternField.setForeground(Color.WHITE);
             defaultDestinationLocationField.setForeground(Color.WHITE);
             saveButton.setBackground(Color.DARK_GRAY);
             saveButton.setForeground(Color.WHITE);
         } else {
             panel.setBackground(Color.WHITE);
             darkModeCheckBox.setForeground(Color.BLACK);
+            skipHiddenCheckBox.setForeground(Color.BLACK);
+            excludePatternsField.setBackground(Color.WHITE);
+            excludePatternsField.setForeground(Color.BLACK);
             defaultSourceLocationField.setBackground(Color.WHITE);
             defaultDestinationLocationField.setBackground(Color.WHITE);
+            ticketPatternField.setBackground(Color.WHITE);
+            routingRulesArea.setBackground(Color.WHITE);
+            routingRulesArea.setForeground(Color.BLACK);
+            routingRulesArea.setCaretColor(Color.BLACK);
             defaultSourceLocationField.setForeground(Color.BLACK);
+            ticketPatternField.setForeground(Color.BLACK);
             defaultDestinationLocationField.setForeground(Color.BLACK);
             saveButton.setBackground(Color.WHITE);
             saveButton.setForeground(Color.BLACK);
@@ -332,6 +629,17 @@ public class FileSorter extends JFrame {
             prefs.putBoolean("darkMode", darkMode);
             prefs.put("defaultSourceLocation", defaultSourceLocation);
             prefs.put("defaultDestinationLocation", defaultDestinationLocation);
+            prefs.putInt("sortThreadCount", sortThreadCount);
+            prefs.put("ticketPattern", ticketPattern);
+            prefs.put("routingRules", routingRules);
+            prefs.put("deduplicationMode", deduplicationMode.name());
+            prefs.putInt("bandwidthLimit", bandwidthLimit);
+            prefs.putInt("walkMaxDepth", walkMaxDepth);
+            prefs.put("excludePatterns", excludePatterns);
+            prefs.putBoolean("skipHiddenFiles", skipHiddenFiles);
+            prefs.putInt("settleSeconds", settleSeconds);
+            prefs.putInt("archiveAfterDays", archiveAfterDays);
+            prefs.putInt("contentScanKb", contentScanKb);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -345,13 +653,50 @@ public class FileSorter extends JFrame {
 
             // Load settings
             darkMode = prefs.getBoolean("darkMode", false); // Default to false if not found
-            defaultSourceLocation = prefs.get("defaultSourceLocation", "C:\\Users\\t.colwell\\Desktop");
-            defaultDestinationLocation = prefs.get("defaultDestinationLocation", "C:\\Users\\t.colwell\\TechSmith Corporation\\Tech Support - Ticket Data");
+            defaultSourceLocation = loadFolderSetting(prefs, "defaultSourceLocation");
+            if (defaultSourceLocation == null) {
+                defaultSourceLocation = "C:\\Users\\t.colwell\\Desktop";
+            }
+            defaultDestinationLocation = loadFolderSetting(prefs, "defaultDestinationLocation");
+            if (defaultDestinationLocation == null) {
+                defaultDestinationLocation = "C:\\Users\\t.colwell\\TechSmith Corporation\\Tech Support - Ticket Data";
+            }
+            sortThreadCount = prefs.getInt("sortThreadCount", 4);
+            ticketPattern = prefs.get("ticketPattern", "");
+            routingRules = prefs.get("routingRules", "");
+            deduplicationMode = Deduplicator.Mode.fromSetting(prefs.get("deduplicationMode", "OFF"));
+            bandwidthLimit = prefs.getInt("bandwidthLimit", 0);
+            walkMaxDepth = prefs.getInt("walkMaxDepth", 0);
+            excludePatterns = prefs.get("excludePatterns", "");
+            skipHiddenFiles = prefs.getBoolean("skipHiddenFiles", true);
+            settleSeconds = prefs.getInt("settleSeconds", IngestionGate.DEFAULT_SETTLE_SECONDS);
+            archiveAfterDays = prefs.getInt("archiveAfterDays", 0);
+            contentScanKb = prefs.getInt("contentScanKb", 0);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // Method to read a folder setting, or null if it was never set. Folders saved by older versions only in
+    // preferences.txt are moved into the registry the first time they are read, so the registry is the only
+    // place settings are kept from then on.
+    static String loadFolderSetting(Preferences prefs, String key) {
+        String value = prefs.get(key, null);
+        if (value != null) {
+            return value;
+        }
+        try {
+            value = readPreferencesFile().get(key);
+        } catch (IOException e) {
+            // No preferences.txt, nothing to move over
+            return null;
+        }
+        if (value != null) {
+            prefs.put(key, value);
+        }
+        return value;
+    }
+
     // Method to paste a filepath into the text field
     private void pasteFilePath(JTextField textField) {
         Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
@@ -363,259 +708,1394 @@ public class FileSorter extends JFrame {
                 textField.setText(pastedText);
 
                 // Update the file list based on the pasted folder
-                updateFileList(new File(pastedText), (DefaultListModel<String>) sourceFileList.getModel());
+                updateFileList(new File(pastedText), (DirectoryTableModel) sourceFileTable.getModel());
             } catch (UnsupportedFlavorException | IOException ex) {
                 ex.printStackTrace();
             }
         }
     }
 
-    public void updateFileList(File folder, DefaultListModel<String> listModel) {
-        // Update the file list based on the selected folder
-        listModel.clear();
+    public void updateFileList(File folder, DirectoryTableModel listModel) {
+        Path previousFolder = listModel.getFolder();
 
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                listModel.addElement(file.getName());
-            }
+        // Update the file list based on the selected folder, entries are streamed in off the EDT
+        listModel.load(folder.toPath());
+
+        if (directoryWatcher != null) {
+            DirectoryWatcher watcher = directoryWatcher;
+            Path shownFolder = folder.toPath();
+            // Stop watching a folder that neither list shows any more
+            boolean unwatchPrevious = previousFolder != null && !previousFolder.equals(shownFolder) && !isFolderShown(previousFolder);
+
+            // Registering a folder on an unreachable share can take as long as listing it
+            watchRegistrar.execute(() -> {
+                watcher.watch(shownFolder);
+                if (unwatchPrevious) {
+                    watcher.unwatch(previousFolder);
+                }
+            });
         }
     }
 
-    private void chooseFolder(JTextField textField) {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-        int result = fileChooser.showOpenDialog(this);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            File selectedFile = fileChooser.getSelectedFile();
-            textField.setText(selectedFile.getAbsolutePath());
+    // Method to reload a list after a change, only needed when its folder is not being watched
+    private void refreshFileList(DirectoryTableModel listModel) {
+        Path folder = listModel.getFolder();
+        if (folder != null && (directoryWatcher == null || !directoryWatcher.isWatching(folder))) {
+            listModel.load(folder);
         }
     }
 
-    void moveFiles() {
-        File[] selectedFiles = sourceFileList.getSelectedValuesList()
-                .stream()
-                .map(fileName -> new File(sourceTextField.getText(), fileName))
-                .toArray(File[]::new);
-
-        String destinationPath = destinationTextField.getText();
-
-        int confirmResult = JOptionPane.showConfirmDialog(this,
-                "You're about to move " + selectedFiles.length + " item(s). Are you sure?",
-                "Confirmation", JOptionPane.YES_NO_OPTION);
+    private boolean isFolderShown(Path folder) {
+        return folder.equals(((DirectoryTableModel) sourceFileTable.getModel()).getFolder())
+                || folder.equals(((DirectoryTableModel) destinationFileTable.getModel()).getFolder());
+    }
 
-        if (confirmResult == JOptionPane.YES_OPTION) {
-            for (File selectedFile : selectedFiles) {
-                moveFileOrFolder(selectedFile, destinationPath);
-            }
+    // Method to list the default folders once the window is showing, so a slow share does not hold it up
+    void showStartFolders() {
+        // Watch the listed folders so the lists follow changes made by the sort or by other programs
+        startDirectoryWatcher();
 
-            // Update source and destination file lists after the move
-            updateFileList(new File(sourceTextField.getText()), (DefaultListModel<String>) sourceFileList.getModel());
-            updateFileList(new File(destinationTextField.getText()), (DefaultListModel<String>) destinationFileList.getModel());
+        updateFileList(new File(sourceTextField.getText()), (DirectoryTableModel) sourceFileTable.getModel());
+        updateFileList(new File(destinationTextField.getText()), (DirectoryTableModel) destinationFileTable.getModel());
 
-            // Display success message
-            JOptionPane.showMessageDialog(this, "Items moved successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-        }
+        archiveIdleTickets();
     }
 
-    public void moveFileOrFolder(File source, String destinationPath) {
-        String fileName = source.getName();
-        File destination = new File(destinationPath, fileName);
+    // Method to pack idle ticket folders of the destination into zips in the background, if that is turned on
+    private void archiveIdleTickets() {
+        if (archiveAfterDays <= 0 || ticketArchiver != null) {
+            return;
+        }
+        Path destinationRoot = Paths.get(destinationTextField.getText());
+        TicketArchiver archiver = new TicketArchiver(destinationRoot, archiveAfterDays, sortThreadCount);
+        ticketArchiver = archiver;
 
-        if (destination.exists()) {
-            // If the file with the same name already exists in the destination folder
-            String nameWithoutExtension = fileName.substring(0, fileName.lastIndexOf('.'));
-            String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
-            int copyIndex = 1;
+        SwingWorker<Void, Void> archiveWorker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                if (Files.isDirectory(destinationRoot)) {
+                    archiver.run();
+                }
+                return null;
+            }
 
-            // Append a number until a unique filename is found
-            while (destination.exists()) {
-                String newName = nameWithoutExtension + "(" + copyIndex + ")." + extension;
-                destination = new File(destinationPath, newName);
-                copyIndex++;
+            @Override
+            protected void done() {
+                ticketArchiver = null;
+                try {
+                    get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    // Nothing was lost, the folders that were not packed are tried again next time
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
+                }
+                if (archiver.getArchivedCount() > 0) {
+                    refreshFileList((DirectoryTableModel) destinationFileTable.getModel());
+                }
             }
+        };
+        archiving = archiveWorker;
+        archiveWorker.execute();
+    }
+
+    // Method to stop archiving before a sort starts; the folders being packed are finished first, see awaitArchiving()
+    private void stopArchiving() {
+        if (ticketArchiver != null) {
+            ticketArchiver.cancel();
         }
+    }
 
+    // Method to wait until a stopped archive run has deleted what it packed, called by a sort before it starts
+    private void awaitArchiving() throws InterruptedException {
+        java.util.concurrent.Future<?> lastArchiving = archiving;
+        if (lastArchiving == null) {
+            return;
+        }
         try {
-            Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "An error occurred: " + e.getMessage(),
-                    "Error", JOptionPane.ERROR_MESSAGE);
+            lastArchiving.get();
+        } catch (java.util.concurrent.ExecutionException e) {
+            // Reported by the archive run itself
         }
     }
 
-    void sortFiles() {
-        String sourcePath = sourceTextField.getText();
-        String destinationPath = destinationTextField.getText();
-
-        StringBuilder successMessageBuilder = new StringBuilder();
-
+    private void startDirectoryWatcher() {
         try {
-            Files.walkFileTree(Paths.get(sourcePath), new SimpleFileVisitor<Path>() {
+            directoryWatcher = new DirectoryWatcher(new DirectoryWatcher.Listener() {
                 @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    String sourceFileName = file.getFileName().toString();
-
-                    // Check for files with 6 consecutive numbers in the title
-                    if (hasConsecutiveNumbers(sourceFileName, 6)) {
-                        String commonNumberPart = getCommonNumberPart(sourceFileName);
-                        File destinationFolder = new File(destinationPath, commonNumberPart);
-                        File destinationFile = new File(destinationFolder, sourceFileName);
-
-                        // If the file already exists in the destination folder, append a number to the filename
-                        int copyIndex = 1;
-                        while (destinationFile.exists()) {
-                            String fileName = sourceFileName;
-                            int extensionIndex = fileName.lastIndexOf('.');
-                            String nameWithoutExtension = fileName.substring(0, extensionIndex);
-                            String extension = fileName.substring(extensionIndex + 1);
-                            String newName = nameWithoutExtension + "(" + copyIndex + ")." + extension;
-                            destinationFile = new File(destinationFolder, newName);
-                            copyIndex++;
-                        }
-
-                        try {
-                            Files.move(file, destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                            if (successMessageBuilder.length() > 0) {
-                                successMessageBuilder.append(System.lineSeparator()); // Add a newline if not the first message
+                public void entriesChanged(Path folder, Set<String> created, Set<String> deleted) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (DirectoryTableModel listModel : listModelsShowing(folder)) {
+                                listModel.applyChanges(created, deleted);
                             }
-                            successMessageBuilder.append(sourceFileName).append(" was moved to folder ").append(commonNumberPart);
-                        } catch (NoSuchFileException e) {
-                            // Skip the file if the destination folder does not exist
                         }
-                    }
-
-                    return FileVisitResult.CONTINUE;
+                    });
                 }
 
                 @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    String sourceDirName = dir.getFileName().toString();
-
-                    // Check for directories with 6 consecutive numbers in the title
-                    if (hasConsecutiveNumbers(sourceDirName, 6)) {
-                        String commonNumberPart = getCommonNumberPart(sourceDirName);
-                        File destinationFolder = new File(destinationPath, commonNumberPart);
-                        File destinationDir = new File(destinationFolder, sourceDirName);
-
-                        // If the directory already exists in the destination folder, append a number to the directory name
-                        int copyIndex = 1;
-                        while (destinationDir.exists()) {
-                            destinationDir = new File(destinationFolder, sourceDirName + "(" + copyIndex + ")");
-                            copyIndex++;
+                public void entriesModified(Path folder, Set<String> modified) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Files being written show their growing size and new time
+                            for (DirectoryTableModel listModel : listModelsShowing(folder)) {
+                                listModel.updateEntries(modified);
+                            }
                         }
+                    });
+                }
 
-                        try {
-                            Files.move(dir, destinationDir.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                            if (successMessageBuilder.length() > 0) {
-                                successMessageBuilder.append(System.lineSeparator()); // Add a newline if not the first message
+                @Override
+                public void overflow(Path folder) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Too many changes to track one by one, list the folder again
+                            for (DirectoryTableModel listModel : listModelsShowing(folder)) {
+                                listModel.load(listModel.getFolder());
                             }
-                            successMessageBuilder.append(sourceDirName).append(" was moved to folder ").append(commonNumberPart);
-                        } catch (NoSuchFileException e) {
-                            // Skip the directory if the destination folder does not exist
                         }
-                    }
-
-                    return FileVisitResult.CONTINUE;
+                    });
                 }
-            });
-
-            // Display success message
-            JOptionPane.showMessageDialog(this, successMessageBuilder.toString(), "Success", JOptionPane.INFORMATION_MESSAGE);
+            }, true);
         } catch (IOException e) {
             e.printStackTrace();
-            // Display error message in case of an exception
-            JOptionPane.showMessageDialog(this, "An error occurred: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            directoryWatcher = null;
         }
+    }
 
-        // Update source and destination file lists after sorting
-        updateFileList(new File(sourcePath), (DefaultListModel<String>) sourceFileList.getModel());
-        updateFileList(new File(destinationPath), (DefaultListModel<String>) destinationFileList.getModel());
+    private java.util.List<DirectoryTableModel> listModelsShowing(Path folder) {
+        java.util.List<DirectoryTableModel> listModels = new ArrayList<>();
+        for (JTable fileTable : Arrays.asList(sourceFileTable, destinationFileTable)) {
+            DirectoryTableModel listModel = (DirectoryTableModel) fileTable.getModel();
+            Path shownFolder = listModel.getFolder();
+            if (shownFolder != null && shownFolder.toAbsolutePath().normalize().equals(folder)) {
+                listModels.add(listModel);
+            }
+        }
+        return listModels;
     }
 
+    // Method to create a table for a folder's entries; clicking a column header sorts by that column
+    private JTable createFileTable(DirectoryTableModel tableModel) {
+        JTable fileTable = new JTable(tableModel);
+        fileTable.setPreferredScrollableViewportSize(FILE_TABLE_SIZE);
+        fileTable.setFillsViewportHeight(true);
+        fileTable.setShowGrid(false);
+        fileTable.getColumnModel().getColumn(DirectorySnapshot.COLUMN_NAME).setPreferredWidth(180);
+        fileTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = fileTable.convertColumnIndexToModel(fileTable.columnAtPoint(e.getPoint()));
+                if (column < 0) {
+                    return;
+                }
+                tableModel.sortBy(column);
+                // The arrow on the sorted column is part of the column names
+                for (int i = 0; i < fileTable.getColumnCount(); i++) {
+                    javax.swing.table.TableColumn tableColumn = fileTable.getColumnModel().getColumn(i);
+                    tableColumn.setHeaderValue(tableModel.getColumnName(tableColumn.getModelIndex()));
+                }
+                fileTable.getTableHeader().repaint();
+            }
+        });
+        return fileTable;
+    }
 
-    private void moveDirectoryWithCommonNumber(File sourceDir, String commonNumberPart, String destinationPath) {
-        File destinationFolder = new File(destinationPath, commonNumberPart);
+    // Method to put a file table in a scroll pane with a filter field that narrows it down as you type
+    private JPanel createFileBrowser(JTable fileTable, DirectoryTableModel tableModel) {
+        JTextField filterField = new JTextField();
+        filterField.setToolTipText("Show only entries whose name contains this text");
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                tableModel.setFilter(filterField.getText());
+            }
 
-        if (!destinationFolder.exists()) {
-            if (!destinationFolder.mkdir()) {
-                JOptionPane.showMessageDialog(this, "Error creating destination folder: " + destinationFolder.getAbsolutePath(),
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                return;
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                tableModel.setFilter(filterField.getText());
             }
-        }
 
-        File destinationDir = new File(destinationFolder, sourceDir.getName());
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                tableModel.setFilter(filterField.getText());
+            }
+        });
 
-        // If the directory already exists in the destination folder, append a number to the directory name
-        int copyIndex = 1;
-        while (destinationDir.exists()) {
-            destinationDir = new File(destinationFolder, sourceDir.getName() + "(" + copyIndex + ")");
-            copyIndex++;
-        }
+        JPanel filterPanel = new JPanel(new BorderLayout(5, 0));
+        filterPanel.setOpaque(false);
+        filterPanel.add(new JLabel("Filter:"), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
 
-        try {
-            Files.move(sourceDir.toPath(), destinationDir.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "An error occurred: " + e.getMessage(),
-                    "Error", JOptionPane.ERROR_MESSAGE);
+        // Says when the table is still loading, shows a cached listing or the folder does not answer
+        JLabel statusLabel = new JLabel(" ");
+        tableModel.addStatusListener(new javax.swing.event.ChangeListener() {
+            @Override
+            public void stateChanged(javax.swing.event.ChangeEvent e) {
+                String status = tableModel.getStatus();
+                statusLabel.setText(status.isEmpty() ? " " : status); // Keep the line's height when empty
+            }
+        });
+
+        JPanel browserPanel = new JPanel(new BorderLayout(0, 5));
+        browserPanel.setOpaque(false);
+        browserPanel.add(filterPanel, BorderLayout.NORTH);
+        browserPanel.add(new JScrollPane(fileTable), BorderLayout.CENTER);
+        browserPanel.add(statusLabel, BorderLayout.SOUTH);
+        return browserPanel;
+    }
+
+    private void chooseFolder(JTextField textField) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        int result = fileChooser.showOpenDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            File selectedFile = fileChooser.getSelectedFile();
+            textField.setText(selectedFile.getAbsolutePath());
         }
     }
 
+    void moveFiles() {
+        DirectoryTableModel sourceTableModel = (DirectoryTableModel) sourceFileTable.getModel();
+        File[] selectedFiles = Arrays.stream(sourceFileTable.getSelectedRows())
+                .mapToObj(row -> new File(sourceTextField.getText(), sourceTableModel.getNameAt(row)))
+                .toArray(File[]::new);
+
+        String destinationPath = destinationTextField.getText();
 
-    private void moveFileWithCommonNumber(File sourceFile, String commonNumberPart, String destinationPath) {
-        File destinationFolder = new File(destinationPath, commonNumberPart);
+        int confirmResult = JOptionPane.showConfirmDialog(this,
+                "You're about to move " + selectedFiles.length + " item(s). Are you sure?",
+                "Confirmation", JOptionPane.YES_NO_OPTION);
 
-        if (!destinationFolder.exists()) {
-            if (!destinationFolder.mkdir()) {
-                JOptionPane.showMessageDialog(this, "Error creating destination folder: " + destinationFolder.getAbsolutePath(),
-                        "Error", JOptionPane.ERROR_MESSAGE);
-                return;
+        if (confirmResult == JOptionPane.YES_OPTION) {
+            java.util.List<Path> sources = new ArrayList<>(selectedFiles.length);
+            for (File selectedFile : selectedFiles) {
+                sources.add(selectedFile.toPath());
             }
+
+            // Plan and run the moves in the background, then report everything in one dialog
+            new SwingWorker<BulkMover.Result, Void>() {
+                @Override
+                protected BulkMover.Result doInBackground() throws Exception {
+                    return new BulkMover(sortThreadCount, createFileMover()).moveAll(sources, Paths.get(destinationPath));
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        BulkMover.Result result = get();
+
+                        // Update source and destination file lists once, after all moves
+                        DirectoryTableModel sourceListModel = (DirectoryTableModel) sourceFileTable.getModel();
+                        DirectoryTableModel destinationListModel = (DirectoryTableModel) destinationFileTable.getModel();
+                        java.util.List<String> movedNames = new ArrayList<>();
+                        java.util.List<String> arrivedNames = new ArrayList<>();
+                        for (Map.Entry<Path, Path> move : result.moved.entrySet()) {
+                            movedNames.add(move.getKey().getFileName().toString());
+                            arrivedNames.add(move.getValue().getFileName().toString());
+                        }
+                        sourceListModel.applyChanges(Collections.emptyList(), movedNames);
+                        destinationListModel.applyChanges(arrivedNames, Collections.emptyList());
+                        refreshFileList(sourceListModel);
+                        refreshFileList(destinationListModel);
+
+                        if (result.failures.isEmpty()) {
+                            // Display success message
+                            JOptionPane.showMessageDialog(FileSorter.this, "Items moved successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                        } else {
+                            JOptionPane.showMessageDialog(FileSorter.this,
+                                    result.moved.size() + " item(s) moved, " + result.failures.size() + " failed:"
+                                            + System.lineSeparator() + result.failureSummary(20),
+                                    "Move Finished With Errors", JOptionPane.WARNING_MESSAGE);
+                        }
+                    } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                        e.printStackTrace();
+                        JOptionPane.showMessageDialog(FileSorter.this, "An error occurred: " + e.getMessage(),
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
         }
+    }
+
+    public void moveFileOrFolder(File source, String destinationPath) {
+        moveFileOrFolder(source, destinationPath, new DestinationNameAllocator());
+    }
 
-        File destinationFile = new File(destinationFolder, sourceFile.getName());
+    void moveFileOrFolder(File source, String destinationPath, DestinationNameAllocator nameAllocator) {
+        moveWithAllocator(source, new File(destinationPath), nameAllocator);
+    }
 
-        // If the file already exists in the destination folder, append a number to the filename
-        int copyIndex = 1;
-        String fileName = sourceFile.getName();
-        int extensionIndex = fileName.lastIndexOf('.');
-        String nameWithoutExtension = fileName.substring(0, extensionIndex);
-        String extension = fileName.substring(extensionIndex + 1);
+    // Method to create the mover for the current copy limit setting
+    FileMover createFileMover() {
+        return new FileMover(bandwidthLimit * BYTES_PER_MEGABYTE);
+    }
 
-        while (destinationFile.exists()) {
-            String newName = nameWithoutExtension + "(" + copyIndex + ")." + extension;
-            destinationFile = new File(destinationFolder, newName);
-            copyIndex++;
-        }
+    // Method to create the walk limits from the settings
+    WalkFilter createWalkFilter() {
+        return WalkFilter.fromSettings(walkMaxDepth, excludePatterns, skipHiddenFiles);
+    }
+
+    // Method to move an item into a folder, appending a number to its name if the name is taken
+    private void moveWithAllocator(File source, File destinationFolder, DestinationNameAllocator nameAllocator) {
+        Path destination = null;
 
         try {
-            Files.move(sourceFile.toPath(), destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            destination = nameAllocator.allocate(destinationFolder.toPath(), source.getName(), source.isDirectory());
+            createFileMover().move(source.toPath(), destination);
         } catch (IOException e) {
+            if (destination != null) {
+                nameAllocator.release(destination);
+            }
             e.printStackTrace();
             JOptionPane.showMessageDialog(this, "An error occurred: " + e.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
-    private boolean hasConsecutiveNumbers(String fileName, int consecutiveCount) {
-        Pattern pattern = Pattern.compile("\\d{" + consecutiveCount + "}");
-        Matcher matcher = pattern.matcher(fileName);
+    void sortFiles() {
+        // Only one sort may run at a time
+        if (sortWorker != null && !sortWorker.isDone()) {
+            return;
+        }
+        if (batchScheduler != null) {
+            JOptionPane.showMessageDialog(this, "A batch sort is running.", "Sort Running", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        String sourcePath = sourceTextField.getText();
+        String destinationPath = destinationTextField.getText();
 
-        return matcher.find();
+        SortWorker worker = new SortWorker(sourcePath, destinationPath, null);
+        worker.resumeInterruptedRun();
+        startSortWorker(worker);
     }
 
-    private String getCommonNumberPart(String fileName) {
-        Pattern pattern = Pattern.compile("\\d+");
-        Matcher matcher = pattern.matcher(fileName);
+    // Method to look for a sort that was cut off by a crash or a cancel and offer to finish it
+    void offerToResumeInterruptedSort() {
+        // Reading the journals may take a while, the window stays responsive meanwhile
+        new SwingWorker<SortJournal.Contents, Void>() {
+            @Override
+            protected SortJournal.Contents doInBackground() throws Exception {
+                return SortJournal.findInterrupted();
+            }
+
+            @Override
+            protected void done() {
+                SortJournal.Contents interrupted;
+                try {
+                    interrupted = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
+                    return;
+                }
+                if (interrupted != null) {
+                    offerToResume(interrupted);
+                }
+            }
+        }.execute();
+    }
 
-        if (matcher.find()) {
-            return matcher.group();
+    // Method to ask whether to resume the run found in a journal, or to mark it as abandoned
+    private void offerToResume(SortJournal.Contents interrupted) {
+        // A sort started while the journals were read comes first; its own journal says what to resume
+        if ((sortWorker != null && !sortWorker.isDone()) || batchScheduler != null) {
+            return;
         }
 
-        return "";
+        int pendingCount = interrupted.count(SortJournal.State.PENDING);
+        int confirmResult = JOptionPane.showConfirmDialog(this,
+                "A sort from " + interrupted.sourceRoot + " to " + interrupted.destinationRoot + " did not finish ("
+                        + interrupted.count(SortJournal.State.DONE) + " item(s) moved, " + pendingCount + " in progress)."
+                        + System.lineSeparator() + "Resume it now?",
+                "Resume Sort", JOptionPane.YES_NO_OPTION);
+
+        if (confirmResult == JOptionPane.YES_OPTION) {
+            SortWorker worker = new SortWorker(interrupted.sourceRoot.toString(), interrupted.destinationRoot.toString(), null);
+            worker.resumeFrom(interrupted);
+            startSortWorker(worker);
+        } else {
+            try {
+                SortJournal.markAbandoned(interrupted.file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Method to move the items of the most recent sort back to where they came from
+    void undoLastSort() {
+        if (sortWorker != null && !sortWorker.isDone()) {
+            JOptionPane.showMessageDialog(this, "Wait for the running sort to finish first.", "Sort Running", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        // The newest journal would be that of a job still moving files
+        if (batchScheduler != null) {
+            JOptionPane.showMessageDialog(this, "Wait for the batch sort to finish first.", "Sort Running", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        undoButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        // The journals are read in the background, then the run found is confirmed and undone
+        new SwingWorker<SortJournal.Contents, Void>() {
+            @Override
+            protected SortJournal.Contents doInBackground() throws Exception {
+                return SortJournal.findUndoable();
+            }
+
+            @Override
+            protected void done() {
+                undoButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                SortJournal.Contents lastSort;
+                try {
+                    lastSort = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(FileSorter.this, "An error occurred: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (lastSort == null) {
+                    JOptionPane.showMessageDialog(FileSorter.this, "There is no sort to undo.", "Undo Sort", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                rollBack(lastSort);
+            }
+        }.execute();
+    }
+
+    // Method to confirm and carry out the undo of the run found in a journal
+    private void rollBack(SortJournal.Contents lastSort) {
+        // A sort may have started while the journals were read
+        if ((sortWorker != null && !sortWorker.isDone()) || batchScheduler != null) {
+            JOptionPane.showMessageDialog(this, "Wait for the running sort to finish first.", "Sort Running", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        int itemCount = lastSort.count(SortJournal.State.DONE) + lastSort.count(SortJournal.State.PENDING);
+        int confirmResult = JOptionPane.showConfirmDialog(this,
+                "You're about to move " + itemCount + " item(s) from " + lastSort.destinationRoot + " back to "
+                        + lastSort.sourceRoot + ". Are you sure?" + System.lineSeparator()
+                        + "After a batch sort only its last job is undone; undo again for each of the other jobs.",
+                "Undo Sort", JOptionPane.YES_NO_OPTION);
+        if (confirmResult != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        undoButton.setEnabled(false);
+        sortButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        // The items to move back may be in folders being packed
+        stopArchiving();
+
+        new SwingWorker<JournalRecovery.Result, Void>() {
+            @Override
+            protected JournalRecovery.Result doInBackground() throws Exception {
+                awaitArchiving();
+                return new JournalRecovery(createFileMover(), sortThreadCount).rollback(lastSort);
+            }
+
+            @Override
+            protected void done() {
+                undoButton.setEnabled(true);
+                sortButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    JournalRecovery.Result result = get();
+                    if (result.failures.isEmpty()) {
+                        JOptionPane.showMessageDialog(FileSorter.this, result.completed.get() + " item(s) moved back.",
+                                "Undo Sort", JOptionPane.INFORMATION_MESSAGE);
+                    } else {
+                        StringBuilder failureMessage = new StringBuilder();
+                        int shown = 0;
+                        for (Map.Entry<Path, String> failure : result.failures.entrySet()) {
+                            if (shown++ == 20) {
+                                failureMessage.append("...").append(System.lineSeparator());
+                                break;
+                            }
+                            failureMessage.append(failure.getKey()).append(": ").append(failure.getValue()).append(System.lineSeparator());
+                        }
+                        JOptionPane.showMessageDialog(FileSorter.this,
+                                result.completed.get() + " item(s) moved back, " + result.failures.size() + " could not be:"
+                                        + System.lineSeparator() + failureMessage,
+                                "Undo Finished With Errors", JOptionPane.WARNING_MESSAGE);
+                    }
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(FileSorter.this, "An error occurred: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                }
+                refreshFileList((DirectoryTableModel) sourceFileTable.getModel());
+                refreshFileList((DirectoryTableModel) destinationFileTable.getModel());
+            }
+        }.execute();
+    }
+
+    private void startSortWorker(SortWorker worker) {
+        stopArchiving();
+        sortWorker = worker;
+        sortButton.setEnabled(false);
+        if (!worker.isRetry()) {
+            sortWorker.showProgressDialog();
+        }
+        sortWorker.execute();
+    }
+
+    // Method to return the content scanner for the current settings, or null when only names are looked at
+    private synchronized ContentScanner contentScannerFor() {
+        if (contentScanner == null) {
+            contentScanner = ContentScanner.fromSettings(ticketPattern, routingRules, contentScanKb, sortThreadCount);
+        }
+        return contentScanner;
+    }
+
+    // Method to return the ingestion gate for sorts between two folders; deferred items are kept while the folders stay the same
+    private IngestionGate ingestionGateFor(String sourcePath, String destinationPath) {
+        if (ingestionGate == null || !sourcePath.equals(ingestionGateSourcePath) || !destinationPath.equals(ingestionGateDestinationPath)) {
+            ingestionGate = new IngestionGate(settleSeconds);
+            ingestionGateSourcePath = sourcePath;
+            ingestionGateDestinationPath = destinationPath;
+        }
+        return ingestionGate;
+    }
+
+    // Method to sort the deferred items again when the next one is due
+    private void scheduleDeferredRetry() {
+        if (deferredRetryTimer != null) {
+            deferredRetryTimer.stop();
+        }
+        long delay = ingestionGate != null ? ingestionGate.millisUntilNextRetry() : -1;
+        if (delay < 0) {
+            return;
+        }
+        deferredRetryTimer = new javax.swing.Timer((int) Math.min(delay, Integer.MAX_VALUE), new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                retryDeferred();
+            }
+        });
+        deferredRetryTimer.setRepeats(false);
+        deferredRetryTimer.start();
+    }
+
+    private void retryDeferred() {
+        if (ingestionGate == null) {
+            return;
+        }
+        // Wait for whatever is running, it reschedules the retry when it is done
+        if (sortWorker != null && !sortWorker.isDone()) {
+            return;
+        }
+        if (batchScheduler != null) {
+            deferredRetryTimer.setInitialDelay(DEFERRED_RETRY_BUSY_MILLIS);
+            deferredRetryTimer.start();
+            return;
+        }
+
+        java.util.List<Path> dueItems = ingestionGate.dueItems();
+        if (dueItems.isEmpty()) {
+            scheduleDeferredRetry();
+            return;
+        }
+        SortWorker worker = new SortWorker(ingestionGateSourcePath, ingestionGateDestinationPath, null);
+        worker.retryOnly(dueItems);
+        startSortWorker(worker);
+    }
+
+    // Method to plan a sort in the background and show what it would do before anything is moved
+    void previewSort() {
+        Path sourceRoot = Paths.get(sourceTextField.getText());
+        Path destinationRoot = Paths.get(destinationTextField.getText());
+        TicketMatcher ticketMatcher = TicketMatcher.fromSettings(ticketPattern, routingRules);
+        FileMover fileMover = createFileMover();
+        WalkFilter walkFilter = createWalkFilter();
+
+        previewButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        new SwingWorker<SortPlan, Void>() {
+            @Override
+            protected SortPlan doInBackground() throws Exception {
+                SortPlanner planner = new SortPlanner(sourceRoot, destinationRoot, ticketMatcher, fileMover,
+                        Runtime.getRuntime().availableProcessors());
+                planner.setWalkFilter(walkFilter);
+                return planner.plan();
+            }
+
+            @Override
+            protected void done() {
+                previewButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    showPlan(get());
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    cause.printStackTrace();
+                    JOptionPane.showMessageDialog(FileSorter.this, "An error occurred: " + cause.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    // Method to open a window listing the planned moves, with a button to carry the plan out
+    private void showPlan(SortPlan plan) {
+        JDialog planDialog = new JDialog(this, "Sort Preview", false);
+        planDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+
+        JTextArea summaryArea = new JTextArea(plan.getSummary());
+        summaryArea.setEditable(false);
+        summaryArea.setOpaque(false);
+
+        java.util.List<SortPlan.PlannedMove> moves = plan.getMoves();
+        JTable planTable = new JTable(new javax.swing.table.AbstractTableModel() {
+            private final String[] columnNames = {"Item", "Destination", "Size", "Move Type"};
+
+            @Override
+            public int getRowCount() {
+                return moves.size();
+            }
+
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                SortPlan.PlannedMove move = moves.get(row);
+                switch (column) {
+                    case 0:
+                        return plan.getSourceRoot().relativize(move.source).toString();
+                    case 1:
+                        return plan.getDestinationRoot().relativize(move.destination).toString();
+                    case 2:
+                        return SortPlan.formatBytes(move.bytes);
+                    default:
+                        String moveType = move.sameVolume ? "Rename" : "Copy";
+                        return move.folderExists ? moveType : moveType + " (new folder)";
+                }
+            }
+        });
+
+        JButton executeButton = new JButton("Execute");
+        executeButton.setEnabled(!moves.isEmpty());
+        executeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if ((sortWorker != null && !sortWorker.isDone()) || batchScheduler != null) {
+                    JOptionPane.showMessageDialog(planDialog, "A sort is already running.", "Sort Running", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                planDialog.dispose();
+                startSortWorker(new SortWorker(plan.getSourceRoot().toString(), plan.getDestinationRoot().toString(), plan));
+            }
+        });
+
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                planDialog.dispose();
+            }
+        });
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(executeButton);
+        buttonPanel.add(closeButton);
+
+        planDialog.setLayout(new BorderLayout(5, 5));
+        planDialog.add(summaryArea, BorderLayout.NORTH);
+        planDialog.add(new JScrollPane(planTable), BorderLayout.CENTER);
+        planDialog.add(buttonPanel, BorderLayout.SOUTH);
+        planDialog.setSize(800, 500);
+        planDialog.setLocationRelativeTo(this);
+        planDialog.setVisible(true);
+    }
+
+    // Method to open a window with the results of a sort, which can be filtered by text or to just the failures
+    private void showResults(SortResultLog results, Path sourceRoot, Path destinationRoot, String headline, int deduplicatedCount) {
+        JDialog resultsDialog = new JDialog(this, "Sort Results", false);
+        resultsDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+
+        StringBuilder totals = new StringBuilder(headline);
+        totals.append(System.lineSeparator()).append("Moved: ").append(results.getMovedCount())
+                .append("    Failed: ").append(results.getFailedCount());
+        if (deduplicatedCount > 0) {
+            totals.append("    Duplicates: ").append(deduplicatedCount);
+        }
+        if (results.getResultCount() > SortResultLog.RESULTS_KEPT) {
+            totals.append(System.lineSeparator()).append("Showing the last ").append(SortResultLog.RESULTS_KEPT)
+                    .append(" results, all of them are in ").append(SortResultLog.LOG_FILE.toAbsolutePath());
+        }
+        JTextArea totalsArea = new JTextArea(totals.toString());
+        totalsArea.setEditable(false);
+        totalsArea.setOpaque(false);
+
+        SortResultTableModel resultsModel = new SortResultTableModel(results.recentResults(), sourceRoot, destinationRoot);
+        JTable resultsTable = new JTable(resultsModel);
+
+        JTextField filterField = new JTextField(20);
+        JCheckBox failedOnlyBox = new JCheckBox("Failed only");
+        JLabel shownLabel = new JLabel();
+        Runnable applyFilter = () -> {
+            resultsModel.setFilter(filterField.getText(), failedOnlyBox.isSelected());
+            shownLabel.setText(resultsModel.getShownCount() + " shown, " + resultsModel.getShownFailedCount() + " failed");
+        };
+        applyFilter.run();
+        filterField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                applyFilter.run();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                applyFilter.run();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                applyFilter.run();
+            }
+        });
+        failedOnlyBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                applyFilter.run();
+            }
+        });
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Filter:"));
+        filterPanel.add(filterField);
+        filterPanel.add(failedOnlyBox);
+        filterPanel.add(shownLabel);
+
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.add(totalsArea, BorderLayout.NORTH);
+        topPanel.add(filterPanel, BorderLayout.SOUTH);
+
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                resultsDialog.dispose();
+            }
+        });
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(closeButton);
+
+        resultsDialog.setLayout(new BorderLayout(5, 5));
+        resultsDialog.add(topPanel, BorderLayout.NORTH);
+        resultsDialog.add(new JScrollPane(resultsTable), BorderLayout.CENTER);
+        resultsDialog.add(buttonPanel, BorderLayout.SOUTH);
+        resultsDialog.setSize(800, 500);
+        resultsDialog.setLocationRelativeTo(this);
+        resultsDialog.setVisible(true);
+    }
+
+    // Method to open the batch sort window, where source to destination jobs are listed and run together
+    private void openBatchSort() {
+        Preferences prefs = Preferences.userRoot().node(REGISTRY_KEY);
+        SortJobTableModel jobsModel = new SortJobTableModel(SortJob.parseAll(prefs.get("sortJobs", "")));
+
+        JDialog batchDialog = new JDialog(this, "Batch Sort", false);
+        batchDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+
+        JTable jobsTable = new JTable(jobsModel);
+        JSpinner concurrentJobsSpinner = new JSpinner(new SpinnerNumberModel(prefs.getInt("batchConcurrentJobs", 4), 1, 32, 1));
+        concurrentJobsSpinner.setToolTipText("Jobs that may run at the same time");
+        JSpinner jobsPerDestinationSpinner = new JSpinner(new SpinnerNumberModel(prefs.getInt("batchJobsPerDestination", 1), 1, 32, 1));
+        jobsPerDestinationSpinner.setToolTipText("Jobs that may sort into the same destination folder at the same time");
+        JLabel totalsLabel = new JLabel(" ");
+
+        JButton addButton = new JButton("Add");
+        JButton removeButton = new JButton("Remove");
+        JButton saveButton = new JButton("Save");
+        JButton runButton = new JButton("Run All");
+        JButton cancelButton = new JButton("Cancel All");
+        JButton resultsButton = new JButton("Results");
+        JButton closeButton = new JButton("Close");
+        cancelButton.setEnabled(false);
+        resultsButton.setEnabled(false);
+
+        SortResultLog[] lastResults = new SortResultLog[1];
+
+        // Refresh the status columns and totals while the jobs run
+        Runnable refreshStatus = () -> {
+            jobsModel.refreshStatus();
+            long moved = 0;
+            long failed = 0;
+            int running = 0;
+            for (SortJob job : jobsModel.getJobs()) {
+                moved += job.getMovedCount();
+                failed += job.getFailedCount();
+                if (job.getState() == SortJob.State.RUNNING) {
+                    running++;
+                }
+            }
+            totalsLabel.setText("Running: " + running + "    Moved: " + moved + "    Failed: " + failed);
+        };
+        javax.swing.Timer statusTimer = new javax.swing.Timer(500, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshStatus.run();
+            }
+        });
+
+        addButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                jobsModel.addJob(new SortJob(sourceTextField.getText(), destinationTextField.getText()));
+            }
+        });
+
+        removeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int row = jobsTable.getSelectedRow();
+                if (row >= 0) {
+                    if (jobsTable.isEditing()) {
+                        jobsTable.getCellEditor().cancelCellEditing();
+                    }
+                    jobsModel.removeJob(row);
+                }
+            }
+        });
+
+        saveButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (jobsTable.isEditing()) {
+                    jobsTable.getCellEditor().stopCellEditing();
+                }
+                saveBatchJobs(batchDialog, jobsModel.getJobs(), (Integer) concurrentJobsSpinner.getValue(),
+                        (Integer) jobsPerDestinationSpinner.getValue());
+            }
+        });
+
+        runButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (jobsTable.isEditing()) {
+                    jobsTable.getCellEditor().stopCellEditing();
+                }
+                if (sortWorker != null && !sortWorker.isDone()) {
+                    JOptionPane.showMessageDialog(batchDialog, "A sort is already running.", "Sort Running", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                if (jobsModel.getJobs().isEmpty()) {
+                    return;
+                }
+
+                SortResultLog results = SortResultLog.open();
+                lastResults[0] = results;
+                ContentHashCache contentHashCache = deduplicationMode != Deduplicator.Mode.OFF ? ContentHashCache.load() : null;
+
+                jobsModel.setEditable(false);
+                setBatchButtonsEnabled(false, addButton, removeButton, saveButton, runButton, resultsButton, closeButton);
+                cancelButton.setEnabled(true);
+                statusTimer.start();
+
+                stopArchiving();
+                batchScheduler = new SortScheduler((Integer) concurrentJobsSpinner.getValue(), (Integer) jobsPerDestinationSpinner.getValue(),
+                        job -> runBatchJob(job, results, contentHashCache));
+                batchScheduler.start(new ArrayList<>(jobsModel.getJobs()), () -> SwingUtilities.invokeLater(() -> {
+                    results.close();
+                    batchScheduler = null;
+                    statusTimer.stop();
+                    refreshStatus.run();
+                    jobsModel.setEditable(true);
+                    setBatchButtonsEnabled(true, addButton, removeButton, saveButton, runButton, resultsButton, closeButton);
+                    cancelButton.setEnabled(false);
+
+                    // The watcher may not cover every folder a batch touched
+                    refreshFileList((DirectoryTableModel) sourceFileTable.getModel());
+                    refreshFileList((DirectoryTableModel) destinationFileTable.getModel());
+                }));
+            }
+        });
+
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (batchScheduler != null) {
+                    batchScheduler.cancel(jobsModel.getJobs());
+                }
+                cancelButton.setEnabled(false);
+            }
+        });
+
+        resultsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showResults(lastResults[0], null, null, "Batch sort finished.", 0);
+            }
+        });
+
+        closeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                batchDialog.dispose();
+            }
+        });
+
+        // The window stays open while jobs run, so their status can be followed and cancelled
+        batchDialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                if (closeButton.isEnabled()) {
+                    batchDialog.dispose();
+                }
+            }
+        });
+
+        JPanel limitsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        limitsPanel.add(new JLabel("Jobs at once:"));
+        limitsPanel.add(concurrentJobsSpinner);
+        limitsPanel.add(new JLabel("Per destination:"));
+        limitsPanel.add(jobsPerDestinationSpinner);
+        limitsPanel.add(totalsLabel);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        buttonPanel.add(saveButton);
+        buttonPanel.add(runButton);
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(resultsButton);
+        buttonPanel.add(closeButton);
+
+        batchDialog.setLayout(new BorderLayout(5, 5));
+        batchDialog.add(limitsPanel, BorderLayout.NORTH);
+        batchDialog.add(new JScrollPane(jobsTable), BorderLayout.CENTER);
+        batchDialog.add(buttonPanel, BorderLayout.SOUTH);
+        batchDialog.setSize(900, 400);
+        batchDialog.setLocationRelativeTo(this);
+        batchDialog.setVisible(true);
+    }
+
+    private static void setBatchButtonsEnabled(boolean enabled, JButton... buttons) {
+        for (JButton button : buttons) {
+            button.setEnabled(enabled);
+        }
+    }
+
+    // Method to save the batch jobs and limits to the registry
+    private void saveBatchJobs(Component parent, java.util.List<SortJob> jobs, int concurrentJobs, int jobsPerDestination) {
+        String setting = SortJob.formatAll(jobs);
+        if (setting.length() > Preferences.MAX_VALUE_LENGTH) {
+            JOptionPane.showMessageDialog(parent, "The job list may be at most " + Preferences.MAX_VALUE_LENGTH + " characters long.",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        try {
+            Preferences prefs = Preferences.userRoot().node(REGISTRY_KEY);
+            prefs.put("sortJobs", setting);
+            prefs.putInt("batchConcurrentJobs", concurrentJobs);
+            prefs.putInt("batchJobsPerDestination", jobsPerDestination);
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(parent, "An error occurred: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // Method to sort one batch job, called on a scheduler thread
+    private void runBatchJob(SortJob job, SortResultLog results, ContentHashCache contentHashCache) throws Exception {
+        awaitArchiving();
+        Path sourceRoot = Paths.get(job.source);
+        Path destinationRoot = Paths.get(job.destination);
+        if (!Files.isDirectory(sourceRoot)) {
+            throw new NoSuchFileException(job.source, null, "Source folder not found");
+        }
+        if (!Files.isDirectory(destinationRoot)) {
+            throw new NoSuchFileException(job.destination, null, "Destination folder not found");
+        }
+
+        SortEngine engine = new SortEngine(sourceRoot, destinationRoot, sortThreadCount,
+                TicketMatcher.fromSettings(ticketPattern, routingRules), new SortEngine.Listener() {
+            @Override
+            public void itemMoved(Path source, Path destination, String commonNumberPart) {
+                results.moved(source, destination, commonNumberPart);
+            }
+
+            @Override
+            public void itemFailed(Path source, IOException e) {
+                results.failed(source, e);
+            }
+        });
+        engine.setFileMover(createFileMover());
+        engine.setWalkFilter(createWalkFilter());
+        // The job keeps its gate for the whole batch, the scheduler runs the job again for what it deferred
+        if (job.ingestionGate == null) {
+            job.ingestionGate = new IngestionGate(settleSeconds);
+        }
+        engine.setIngestionGate(job.ingestionGate);
+        engine.setContentScanner(contentScannerFor());
+
+        SortJournal journal = SortJournal.create(sourceRoot, destinationRoot);
+        engine.setJournal(journal);
+        Deduplicator deduplicator = null;
+        if (contentHashCache != null) {
+            deduplicator = new Deduplicator(deduplicationMode, contentHashCache, Runtime.getRuntime().availableProcessors());
+            engine.setDeduplicator(deduplicator);
+        }
+        job.engine = engine;
+
+        try {
+            java.util.List<Path> retryItems = job.retryItems;
+            if (retryItems != null) {
+                engine.run(retryItems);
+            } else {
+                engine.run();
+            }
+            if (!engine.isCancelled()) {
+                journal.logEnd();
+            }
+            int deferredCount = job.ingestionGate.getDeferredCount();
+            job.message = deferredCount > 0 ? deferredCount + " item(s) still being written, sorted once they are done" : "";
+        } finally {
+            engine.close();
+            journal.close();
+            if (deduplicator != null) {
+                deduplicator.close();
+            }
+            try {
+                engine.getMetrics().writeReport(sourceRoot, destinationRoot, sortThreadCount);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Background task that walks the source folder off the EDT and reports progress as it moves items
+    private class SortWorker extends SwingWorker<Void, SortWorker.MovedItem> {
+        private final String sourcePath;
+        private final String destinationPath;
+        private final Path sourceRoot;
+        private final SortPlan plan;
+        private final IngestionGate ingestionGate;
+        private SortJournal.Contents resumeFrom;
+        private boolean resumeInterrupted;
+        private Collection<Path> retryItems; // Only these items are sorted, without a progress window or results
+
+        private volatile SortEngine engine;
+        private volatile SortResultLog resultLog;
+        private volatile boolean cancelRequested = false;
+        private final long startTime = System.nanoTime();
+
+        private JDialog progressDialog;
+        private JProgressBar progressBar;
+        private JLabel scannedLabel;
+        private JLabel movedLabel;
+        private JLabel throughputLabel;
+
+        // An item that was moved, used to refresh the lists incrementally
+        class MovedItem {
+            final Path source;
+            final String commonNumberPart;
+
+            MovedItem(Path source, String commonNumberPart) {
+                this.source = source;
+                this.commonNumberPart = commonNumberPart;
+            }
+        }
+
+        // With a plan, the worker carries out exactly the planned moves instead of walking the folder
+        SortWorker(String sourcePath, String destinationPath, SortPlan plan) {
+            this.sourcePath = sourcePath;
+            this.destinationPath = destinationPath;
+            this.sourceRoot = Paths.get(sourcePath);
+            this.plan = plan;
+            this.ingestionGate = ingestionGateFor(sourcePath, destinationPath);
+        }
+
+        // Method to sort only items the ingestion gate deferred, quietly in the background
+        void retryOnly(Collection<Path> items) {
+            this.retryItems = items;
+        }
+
+        boolean isRetry() {
+            return retryItems != null;
+        }
+
+        // Method to continue the run of an interrupted journal instead of starting a new one
+        void resumeFrom(SortJournal.Contents interrupted) {
+            this.resumeFrom = interrupted;
+        }
+
+        // Method to carry on in the journal of a cancelled run of the same folders, if there is one, rather
+        // than leaving it open; the journals are looked through when the worker starts
+        void resumeInterruptedRun() {
+            this.resumeInterrupted = true;
+        }
+
+        // Method to build and show the progress window with a cancel button
+        void showProgressDialog() {
+            progressDialog = new JDialog(FileSorter.this, "Sorting Files", false);
+            progressDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+
+            progressBar = new JProgressBar();
+            progressBar.setIndeterminate(true);
+            progressBar.setStringPainted(true);
+            progressBar.setString("Scanning...");
+
+            scannedLabel = new JLabel("Files scanned: 0");
+            movedLabel = new JLabel("Files moved: 0");
+            throughputLabel = new JLabel("Throughput: 0.0 files/s");
+
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    cancelRequested = true;
+                    if (engine != null) {
+                        engine.cancel();
+                    }
+                    cancelButton.setEnabled(false);
+                    progressBar.setString("Cancelling...");
+                }
+            });
+
+            JPanel panel = new JPanel(new GridBagLayout());
+            GridBagConstraints gbc = new GridBagConstraints();
+            gbc.insets = new Insets(5, 5, 5, 5);
+            gbc.fill = GridBagConstraints.HORIZONTAL;
+            gbc.gridx = 0;
+
+            gbc.gridy = 0;
+            panel.add(progressBar, gbc);
+            gbc.gridy = 1;
+            panel.add(scannedLabel, gbc);
+            gbc.gridy = 2;
+            panel.add(movedLabel, gbc);
+            gbc.gridy = 3;
+            panel.add(throughputLabel, gbc);
+            gbc.gridy = 4;
+            gbc.fill = GridBagConstraints.NONE;
+            gbc.anchor = GridBagConstraints.EAST;
+            panel.add(cancelButton, gbc);
+
+            progressDialog.add(panel);
+            progressDialog.setSize(350, 200);
+            progressDialog.setLocationRelativeTo(FileSorter.this);
+            progressDialog.setVisible(true);
+        }
+
+        @Override
+        protected Void doInBackground() throws Exception {
+            awaitArchiving();
+
+            if (resumeInterrupted && resumeFrom == null) {
+                try {
+                    SortJournal.Contents interrupted = SortJournal.findInterrupted();
+                    if (interrupted != null && interrupted.sourceRoot.equals(sourceRoot.toAbsolutePath())
+                            && interrupted.destinationRoot.equals(Paths.get(destinationPath).toAbsolutePath())) {
+                        resumeFrom = interrupted;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // Results go to the log on disk and only the most recent ones stay in memory
+            SortResultLog results = SortResultLog.open();
+            resultLog = results;
+
+            engine = new SortEngine(sourceRoot, Paths.get(destinationPath), sortThreadCount,
+                    TicketMatcher.fromSettings(ticketPattern, routingRules), new SortEngine.Listener() {
+                @Override
+                public void itemMoved(Path source, Path destination, String commonNumberPart) {
+                    publish(new MovedItem(source, commonNumberPart));
+                    results.moved(source, destination, commonNumberPart);
+                }
+
+                @Override
+                public void itemFailed(Path source, IOException e) {
+                    results.failed(source, e);
+                }
+            });
+
+            FileMover fileMover = createFileMover();
+            engine.setFileMover(fileMover);
+            engine.setWalkFilter(createWalkFilter());
+            engine.setIngestionGate(ingestionGate);
+            engine.setContentScanner(contentScannerFor());
+
+            // Every move is written to the journal first, so a crash can be resumed and a run undone
+            SortJournal journal = resumeFrom != null ? SortJournal.reopen(resumeFrom)
+                    : SortJournal.create(sourceRoot, Paths.get(destinationPath));
+            engine.setJournal(journal);
+
+            Deduplicator deduplicator = null;
+            if (deduplicationMode != Deduplicator.Mode.OFF) {
+                deduplicator = new Deduplicator(deduplicationMode, ContentHashCache.load(), Runtime.getRuntime().availableProcessors());
+                engine.setDeduplicator(deduplicator);
+            }
+
+            // A cancel may have been requested before the engine existed
+            if (cancelRequested) {
+                engine.cancel();
+            }
+
+            // Keep the progress window ticking while the engine runs
+            javax.swing.Timer progressTimer = new javax.swing.Timer(250, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    publish();
+                }
+            });
+            progressTimer.start();
+
+            try {
+                if (resumeFrom != null) {
+                    // Settle the moves that were in flight, then sort whatever is still left
+                    new JournalRecovery(fileMover, sortThreadCount).finishPending(resumeFrom, journal);
+                }
+                if (plan != null) {
+                    engine.run(plan);
+                } else if (retryItems != null) {
+                    engine.run(retryItems);
+                } else {
+                    engine.run();
+                }
+                // A cancelled run stays open in the journal so it can be resumed
+                if (!engine.isCancelled()) {
+                    journal.logEnd();
+                }
+            } finally {
+                progressTimer.stop();
+                engine.close();
+                journal.close();
+                if (deduplicator != null) {
+                    deduplicator.close();
+                }
+                // Retries can come every few seconds and would push the reports of real runs out
+                if (retryItems == null) {
+                    writeRunReport();
+                }
+                results.close();
+            }
+            return null;
+        }
+
+        // Method to keep the timings of the run under reports/, so slow moves can be compared between machines
+        private void writeRunReport() {
+            try {
+                engine.getMetrics().writeReport(sourceRoot, Paths.get(destinationPath), sortThreadCount);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        protected void process(java.util.List<MovedItem> chunks) {
+            // A retry has no progress window
+            if (progressDialog != null) {
+                refreshProgress();
+            }
+
+            // Update the lists with just the items that changed instead of rebuilding them
+            DirectoryTableModel sourceListModel = (DirectoryTableModel) sourceFileTable.getModel();
+            DirectoryTableModel destinationListModel = (DirectoryTableModel) destinationFileTable.getModel();
+            java.util.List<String> movedNames = new ArrayList<>();
+            Set<String> ticketFolders = new LinkedHashSet<>();
+            for (MovedItem item : chunks) {
+                if (sourceRoot.equals(item.source.getParent())) {
+                    movedNames.add(item.source.getFileName().toString());
+                }
+                // Ticket folders already shown only have their times updated
+                ticketFolders.add(item.commonNumberPart);
+            }
+            sourceListModel.applyChanges(Collections.emptyList(), movedNames);
+            destinationListModel.applyChanges(ticketFolders, Collections.emptyList());
+        }
+
+        // Method to refresh the progress labels
+        private void refreshProgress() {
+            long scannedCount = engine != null ? engine.getScannedCount() : 0;
+            long movedCount = engine != null ? engine.getMovedCount() : 0;
+            double elapsedSeconds = Math.max((System.nanoTime() - startTime) / 1_000_000_000.0, 0.001);
+            scannedLabel.setText("Files scanned: " + scannedCount);
+            int deduplicatedCount = engine != null ? engine.getDeduplicatedCount() : 0;
+            movedLabel.setText(deduplicatedCount > 0 ? "Files moved: " + movedCount + " (" + deduplicatedCount + " duplicates)"
+                    : "Files moved: " + movedCount);
+            long copiedBytes = engine != null ? engine.getCopiedBytes() : 0;
+            if (copiedBytes > 0) {
+                // Moves between drives copy the data, so show how much has gone over
+                throughputLabel.setText(String.format("Throughput: %.1f files/s, %.1f MB copied", movedCount / elapsedSeconds,
+                        copiedBytes / (double) BYTES_PER_MEGABYTE));
+            } else {
+                throughputLabel.setText(String.format("Throughput: %.1f files/s", movedCount / elapsedSeconds));
+            }
+            if (!cancelRequested) {
+                progressBar.setString("Sorting...");
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (retryItems != null) {
+                finishRetry();
+                return;
+            }
+            progressDialog.dispose();
+            sortButton.setEnabled(true);
+
+            try {
+                get();
+
+                if (cancelRequested) {
+                    // Items already moved are gone from the source, so running the sort again picks up where it stopped
+                    sortButton.setText("Resume Sort");
+                    showResults(resultLog, sourceRoot, Paths.get(destinationPath), "Sort cancelled after moving " + engine.getMovedCount() + " item(s).",
+                            engine.getDeduplicatedCount());
+                } else {
+                    sortButton.setText("Sort Files");
+                    archiveIdleTickets();
+                    String headline = "Sort finished.";
+                    if (engine.getDeferredCount() > 0) {
+                        headline += " " + engine.getDeferredCount() + " item(s) still being written will be sorted once they are done.";
+                    }
+                    showResults(resultLog, sourceRoot, Paths.get(destinationPath), headline, engine.getDeduplicatedCount());
+                }
+            } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                cause.printStackTrace();
+                // Display error message in case of an exception
+                JOptionPane.showMessageDialog(FileSorter.this, "An error occurred: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+
+                // Fall back to a full refresh if the folders are not watched, the incremental updates may be incomplete
+                refreshFileList((DirectoryTableModel) sourceFileTable.getModel());
+                refreshFileList((DirectoryTableModel) destinationFileTable.getModel());
+            }
+            scheduleDeferredRetry();
+        }
+
+        // A retry shows nothing; its moves and failures go to the results log like those of any other sort
+        private void finishRetry() {
+            sortButton.setEnabled(true);
+            try {
+                get();
+            } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                cause.printStackTrace();
+            }
+            scheduleDeferredRetry();
+        }
     }
 
     private void updateDarkMode() {
@@ -655,39 +2135,34 @@ public class FileSorter extends JFrame {
         destinationTextField.setForeground(foreground);
     }
 
-    void loadPreferences() {
+    // Method to read the key=value lines of preferences.txt, where older versions kept the default folders
+    static Map<String, String> readPreferencesFile() throws IOException {
+        Map<String, String> preferences = new HashMap<>();
         try (BufferedReader reader = new BufferedReader(new FileReader("preferences.txt"))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (line.startsWith("defaultSourceLocation=")) {
-                    defaultSourceLocation = line.substring(line.indexOf('=') + 1);
-                } else if (line.startsWith("defaultDestinationLocation=")) {
-                    defaultDestinationLocation = line.substring(line.indexOf('=') + 1);
+                int separatorIndex = line.indexOf('=');
+                if (separatorIndex > 0) {
+                    preferences.put(line.substring(0, separatorIndex), line.substring(separatorIndex + 1));
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            // If there's an error, fallback to defaults
-            defaultSourceLocation = "C:\\Users\\t.colwell\\Desktop";
-            defaultDestinationLocation = "C:\\Users\\t.colwell\\TechSmith Corporation\\Tech Support - Ticket Data";
         }
+        return preferences;
     }
 
-    void savePreferences() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("preferences.txt"))) {
-            writer.write("defaultSourceLocation=" + defaultSourceLocation);
-            writer.newLine();
-            writer.write("defaultDestinationLocation=" + defaultDestinationLocation);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void main(String[] args) {
+        // Without a display, or when given arguments, sort from the command line instead of opening the window
+        if (args.length > 0 || GraphicsEnvironment.isHeadless()) {
+            System.exit(FileSorterCli.run(args));
         }
-    }
 
-    public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new FileSorter().setVisible(true);
+                FileSorter fileSorter = new FileSorter();
+                fileSorter.setVisible(true);
+                fileSorter.showStartFolders();
+                fileSorter.offerToResumeInterruptedSort();
             }
         });
     }
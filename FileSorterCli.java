@@ -0,0 +1,360 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.prefs.Preferences;
+
+// Headless front end for the sort. Either sorts the source folder once and exits, or keeps running
+// and sorts new arrivals as soon as they stop changing. It can also archive idle ticket folders, e.g. from
+// a scheduled task.
+public class FileSorterCli {
+
+    // Exit codes for the one-shot mode
+    static final int EXIT_OK = 0;
+    static final int EXIT_ITEMS_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_SORT_FAILED = 3;
+
+    // How long a new file must go without changes before it is moved
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    // Watch mode sorts every few seconds; the ticket folder index is written to disk at most this often
+    private static final long INDEX_SAVE_INTERVAL_MILLIS = 60000;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: FileSorter --once | --watch [options]",
+            "  --once                 Sort the source folder once and exit",
+            "  --watch                Keep running and sort new files as they arrive",
+            "  --archive              Pack ticket folders untouched for some days into zips and exit",
+            "  --source <folder>      Folder to sort (default: Settings)",
+            "  --destination <folder> Ticket folder root (default: Settings)",
+            "  --threads <n>          Number of worker threads (default: Settings)",
+            "  --debounce <ms>        Quiet time before a new file is moved in watch mode (default: 500)",
+            "  --days <n>             Days a ticket folder must be untouched to be archived (default: Settings)",
+            "  --scan-kb <n>          KB read from files without a ticket number in the name, 0 for none (default: Settings)",
+            "Exit codes: 0 all items moved, 1 some items failed, 2 bad arguments, 3 sort could not run");
+
+    private final Path sourceRoot;
+    private final Path destinationRoot;
+    private final int threadCount;
+    private final TicketMatcher ticketMatcher;
+    private final FileMover fileMover;
+    private Deduplicator.Mode deduplicationMode = Deduplicator.Mode.OFF;
+    private WalkFilter walkFilter = WalkFilter.NONE;
+    private IngestionGate ingestionGate = new IngestionGate(0);
+    private ContentScanner contentScanner;
+    private ContentHashCache contentHashCache;
+
+    // Built by the first sort and used for every later one
+    private volatile SortEngine engine;
+
+    FileSorterCli(Path sourceRoot, Path destinationRoot, int threadCount, TicketMatcher ticketMatcher, FileMover fileMover) {
+        this.sourceRoot = sourceRoot;
+        this.destinationRoot = destinationRoot;
+        this.threadCount = threadCount;
+        this.ticketMatcher = ticketMatcher;
+        this.fileMover = fileMover;
+    }
+
+    // Method to parse the arguments and run the requested mode, returns the process exit code
+    public static int run(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        String mode = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--once") || arg.equals("--watch") || arg.equals("--archive")) {
+                mode = arg;
+            } else if ((arg.equals("--source") || arg.equals("--destination") || arg.equals("--threads")
+                    || arg.equals("--debounce") || arg.equals("--days") || arg.equals("--scan-kb")) && i + 1 < args.length) {
+                options.put(arg, args[++i]);
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.err.println(USAGE);
+                return EXIT_USAGE;
+            }
+        }
+
+        if (mode == null) {
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        // Fill in anything not given on the command line from the saved settings
+        Preferences prefs = Preferences.userRoot().node(FileSorter.REGISTRY_KEY);
+
+        String sourcePath = options.containsKey("--source") ? options.get("--source") : FileSorter.loadFolderSetting(prefs, "defaultSourceLocation");
+        String destinationPath = options.containsKey("--destination") ? options.get("--destination") : FileSorter.loadFolderSetting(prefs, "defaultDestinationLocation");
+        if (mode.equals("--archive")) {
+            return archive(destinationPath, options, prefs);
+        }
+        if (sourcePath == null || destinationPath == null) {
+            System.err.println("Source and destination folders must be given or set in the settings");
+            return EXIT_USAGE;
+        }
+
+        int threadCount;
+        long debounceMillis;
+        TicketMatcher ticketMatcher;
+        WalkFilter walkFilter;
+        int contentScanKb;
+        try {
+            threadCount = options.containsKey("--threads") ? Integer.parseInt(options.get("--threads")) : prefs.getInt("sortThreadCount", 4);
+            debounceMillis = options.containsKey("--debounce") ? Long.parseLong(options.get("--debounce")) : DEFAULT_DEBOUNCE_MILLIS;
+            ticketMatcher = TicketMatcher.fromSettings(prefs.get("ticketPattern", ""), prefs.get("routingRules", ""));
+            walkFilter = WalkFilter.fromSettings(prefs.getInt("walkMaxDepth", 0), prefs.get("excludePatterns", ""),
+                    prefs.getBoolean("skipHiddenFiles", true));
+            contentScanKb = options.containsKey("--scan-kb") ? Integer.parseInt(options.get("--scan-kb")) : prefs.getInt("contentScanKb", 0);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid setting: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+
+        Path sourceRoot = Paths.get(sourcePath);
+        if (!Files.isDirectory(sourceRoot) || !Files.isDirectory(Paths.get(destinationPath))) {
+            System.err.println("Source and destination must be existing folders");
+            return EXIT_USAGE;
+        }
+
+        FileMover fileMover = new FileMover(prefs.getInt("bandwidthLimit", 0) * FileSorter.BYTES_PER_MEGABYTE);
+        FileSorterCli cli = new FileSorterCli(sourceRoot, Paths.get(destinationPath), threadCount, ticketMatcher, fileMover);
+        cli.deduplicationMode = Deduplicator.Mode.fromSetting(prefs.get("deduplicationMode", "OFF"));
+        cli.walkFilter = walkFilter;
+        cli.ingestionGate = new IngestionGate(prefs.getInt("settleSeconds", IngestionGate.DEFAULT_SETTLE_SECONDS));
+        cli.contentScanner = ContentScanner.fromSettings(prefs.get("ticketPattern", ""), prefs.get("routingRules", ""), contentScanKb, threadCount);
+        if (mode.equals("--once")) {
+            return cli.sortOnce();
+        }
+        return cli.watch(debounceMillis);
+    }
+
+    // Method to archive the idle ticket folders of the destination once
+    private static int archive(String destinationPath, Map<String, String> options, Preferences prefs) {
+        int days;
+        int threadCount;
+        try {
+            days = options.containsKey("--days") ? Integer.parseInt(options.get("--days")) : prefs.getInt("archiveAfterDays", 0);
+            threadCount = options.containsKey("--threads") ? Integer.parseInt(options.get("--threads")) : prefs.getInt("sortThreadCount", 4);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid setting: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        if (destinationPath == null || !Files.isDirectory(Paths.get(destinationPath))) {
+            System.err.println("Destination must be an existing folder");
+            return EXIT_USAGE;
+        }
+        if (days <= 0) {
+            System.err.println("Archiving is off, give --days or set Archive After in the settings");
+            return EXIT_USAGE;
+        }
+
+        TicketArchiver archiver = new TicketArchiver(Paths.get(destinationPath), days, threadCount);
+        try {
+            archiver.run();
+        } catch (IOException e) {
+            System.err.println("An error occurred: " + e.getMessage());
+            return EXIT_SORT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_SORT_FAILED;
+        }
+        System.out.println(archiver.getArchivedCount() + " ticket folder(s) archived ("
+                + SortPlan.formatBytes(archiver.getArchivedBytes()) + "), " + archiver.getFailedCount() + " failed");
+        return archiver.getFailedCount() > 0 ? EXIT_ITEMS_FAILED : EXIT_OK;
+    }
+
+    // Method to sort the whole source folder once
+    int sortOnce() {
+        try {
+            resumeInterruptedRun();
+            SortEngine engine = sort(Collections.singletonList(sourceRoot));
+            System.out.println(engine.getMovedCount() + " item(s) moved, " + engine.getFailedCount() + " failed");
+            if (engine.getDeferredCount() > 0) {
+                System.out.println(engine.getDeferredCount() + " item(s) still being written were left for the next run");
+            }
+            // Watch mode sorts in many small batches, those are only counted in the JMX totals
+            try {
+                System.out.println("Report written to " + engine.getMetrics().writeReport(sourceRoot, destinationRoot, threadCount));
+            } catch (IOException e) {
+                System.err.println("Cannot write the run report: " + e.getMessage());
+            }
+            return engine.getFailedCount() > 0 ? EXIT_ITEMS_FAILED : EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("An error occurred: " + e.getMessage());
+            return EXIT_SORT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_SORT_FAILED;
+        } finally {
+            if (engine != null) {
+                engine.close();
+            }
+        }
+    }
+
+    // Method to sort whatever is already in the source folder, then sort new arrivals until the process is stopped
+    int watch(long debounceMillis) {
+        // Last time each new entry changed, keyed by name in the source folder
+        ConcurrentHashMap<String, Long> lastChanged = new ConcurrentHashMap<>();
+        BlockingQueue<Boolean> fullSweepRequests = new LinkedBlockingQueue<>();
+
+        DirectoryWatcher watcher;
+        try {
+            watcher = new DirectoryWatcher(new DirectoryWatcher.Listener() {
+                @Override
+                public void entriesChanged(Path folder, Set<String> created, Set<String> deleted) {
+                    long now = System.nanoTime();
+                    for (String name : created) {
+                        lastChanged.put(name, now);
+                    }
+                    for (String name : deleted) {
+                        lastChanged.remove(name);
+                    }
+                }
+
+                @Override
+                public void entriesModified(Path folder, Set<String> modified) {
+                    // Still being written, so the quiet time starts over
+                    long now = System.nanoTime();
+                    for (String name : modified) {
+                        lastChanged.put(name, now);
+                    }
+                }
+
+                @Override
+                public void overflow(Path folder) {
+                    fullSweepRequests.offer(Boolean.TRUE);
+                }
+            }, true);
+        } catch (IOException e) {
+            System.err.println("Cannot watch the source folder: " + e.getMessage());
+            return EXIT_SORT_FAILED;
+        }
+
+        if (!watcher.watch(sourceRoot)) {
+            System.err.println("Cannot watch the source folder: " + sourceRoot);
+            return EXIT_SORT_FAILED;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watcher.close();
+                // Index changes from the last minute would otherwise be lost
+                SortEngine lastEngine = engine;
+                if (lastEngine != null) {
+                    lastEngine.saveTicketFolderIndex();
+                }
+            }
+        }));
+
+        System.out.println("Watching " + sourceRoot + " for new files");
+        try {
+            resumeInterruptedRun();
+        } catch (IOException e) {
+            System.err.println("An error occurred: " + e.getMessage());
+        }
+        fullSweepRequests.offer(Boolean.TRUE);
+
+        long debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        long pollMillis = Math.max(10, debounceMillis / 4);
+        try {
+            while (true) {
+                if (fullSweepRequests.poll(pollMillis, TimeUnit.MILLISECONDS) != null) {
+                    fullSweepRequests.clear();
+                    lastChanged.clear();
+                    sortAndReport(Collections.singletonList(sourceRoot));
+                    continue;
+                }
+
+                // Move the entries that have been quiet for the whole debounce window
+                long now = System.nanoTime();
+                java.util.List<Path> settled = new ArrayList<>();
+                for (Map.Entry<String, Long> entry : lastChanged.entrySet()) {
+                    if (now - entry.getValue() >= debounceNanos && lastChanged.remove(entry.getKey(), entry.getValue())) {
+                        settled.add(sourceRoot.resolve(entry.getKey()));
+                    }
+                }
+
+                if (!settled.isEmpty()) {
+                    sortAndReport(settled);
+                }
+
+                // Items that were still being written are looked at again as their backoff runs out
+                java.util.List<Path> dueItems = ingestionGate.dueItems();
+                if (!dueItems.isEmpty()) {
+                    sortAndReport(dueItems);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_OK;
+        }
+    }
+
+    private void sortAndReport(Collection<Path> startPaths) throws InterruptedException {
+        try {
+            sort(startPaths);
+        } catch (IOException e) {
+            System.err.println("An error occurred: " + e.getMessage());
+        }
+    }
+
+    // Method to finish the moves of an earlier run of the same folders that was stopped part way
+    private void resumeInterruptedRun() throws IOException {
+        SortJournal.Contents interrupted = SortJournal.findInterrupted();
+        if (interrupted == null || !interrupted.sourceRoot.equals(sourceRoot.toAbsolutePath())
+                || !interrupted.destinationRoot.equals(destinationRoot.toAbsolutePath())) {
+            return;
+        }
+        // What the interrupted run had not started yet is picked up by the sort that follows
+        try (SortJournal journal = SortJournal.reopen(interrupted)) {
+            JournalRecovery.Result result = new JournalRecovery(fileMover, threadCount).finishPending(interrupted, journal);
+            journal.logEnd();
+            System.out.println("Interrupted run resumed: " + result.completed.get() + " move(s) finished, "
+                    + result.failures.size() + " failed");
+            for (Map.Entry<Path, String> failure : result.failures.entrySet()) {
+                System.err.println("Failed to move " + failure.getKey() + ": " + failure.getValue());
+            }
+        }
+    }
+
+    private SortEngine sort(Collection<Path> startPaths) throws IOException, InterruptedException {
+        if (engine == null) {
+            engine = new SortEngine(sourceRoot, destinationRoot, threadCount, ticketMatcher, new SortEngine.Listener() {
+                @Override
+                public void itemMoved(Path source, Path destination, String commonNumberPart) {
+                    System.out.println(source.getFileName() + " was moved to folder " + commonNumberPart);
+                }
+
+                @Override
+                public void itemFailed(Path source, IOException e) {
+                    System.err.println("Failed to move " + source + ": " + e.getMessage());
+                }
+            });
+            engine.setFileMover(fileMover);
+            engine.setWalkFilter(walkFilter);
+            engine.setIngestionGate(ingestionGate);
+            engine.setContentScanner(contentScanner);
+            engine.setIndexSaveInterval(INDEX_SAVE_INTERVAL_MILLIS);
+        }
+
+        // Every run is journaled like one from the window, so a crash can be resumed and a run undone there
+        try (SortJournal journal = SortJournal.create(sourceRoot, destinationRoot)) {
+            engine.setJournal(journal);
+            if (deduplicationMode == Deduplicator.Mode.OFF) {
+                engine.run(startPaths);
+            } else {
+                // Loaded once, watch mode sorts many times
+                if (contentHashCache == null) {
+                    contentHashCache = ContentHashCache.load();
+                }
+                try (Deduplicator deduplicator = new Deduplicator(deduplicationMode, contentHashCache, threadCount)) {
+                    engine.setDeduplicator(deduplicator);
+                    engine.run(startPaths);
+                }
+            }
+            journal.logEnd();
+        }
+        return engine;
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps a sort away from files that are still being written, such as a recording the screen recorder has
+// open. A file is only moved once its modification time is older than the settle time, its size and time
+// have not changed since it was last looked at, and it can be opened for writing and locked, which fails on
+// Windows while another program has it open for writing.
+//
+// Files that are not ready are deferred: they are left alone by every sort until their retry time, which
+// doubles on each attempt, so a long recording is not probed again on every sweep. The walk only checks
+// the attributes it already has; the lock probe is done by the workers, right before a move.
+public class IngestionGate {
+
+    static final int DEFAULT_SETTLE_SECONDS = 5;
+
+    // Backoff between looks at a deferred file
+    private static final long FIRST_RETRY_MILLIS = 2000;
+    private static final long MAX_RETRY_MILLIS = 5 * 60 * 1000;
+
+    private final long settleMillis;
+
+    // Files that were not ready, keyed by path
+    private final ConcurrentHashMap<Path, Deferred> deferred = new ConcurrentHashMap<>();
+
+    // A file that was not ready, with its size and time when it was last looked at
+    private static class Deferred {
+        final long size;
+        final long modifiedTime;
+        final int attempts;
+        final long retryTime;
+
+        Deferred(long size, long modifiedTime, int attempts, long retryTime) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.attempts = attempts;
+            this.retryTime = retryTime;
+        }
+    }
+
+    public IngestionGate(int settleSeconds) {
+        this.settleMillis = Math.max(0, settleSeconds) * 1000L;
+    }
+
+    // Method to check an item found by the walk using the attributes the walk already read, without touching the disk
+    public boolean admits(Path item, BasicFileAttributes attrs) {
+        return admits(item, attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.isDirectory());
+    }
+
+    private boolean admits(Path item, long size, long modifiedTime, boolean directory) {
+        long now = System.currentTimeMillis();
+        Deferred previous = deferred.get(item);
+        if (previous != null && now < previous.retryTime) {
+            return false;
+        }
+
+        // A folder's own time changes as entries are added to it, its size says nothing
+        boolean changed = previous != null && (previous.modifiedTime != modifiedTime || (!directory && previous.size != size));
+        if (changed || now - modifiedTime < settleMillis) {
+            defer(item, size, modifiedTime, previous, now);
+            return false;
+        }
+        return true;
+    }
+
+    // Method to check a file right before it is moved: its attributes again, then whether it can be locked
+    public boolean admitsToMove(Path file) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Gone or unreadable, the move reports it
+            deferred.remove(file);
+            return true;
+        }
+        if (!admits(file, attrs.size(), attrs.lastModifiedTime().toMillis(), attrs.isDirectory())) {
+            return false;
+        }
+        if (attrs.isDirectory() || isUnlocked(file)) {
+            deferred.remove(file);
+            return true;
+        }
+        defer(file, attrs.size(), attrs.lastModifiedTime().toMillis(), deferred.get(file), System.currentTimeMillis());
+        return false;
+    }
+
+    // Method to tell whether another program has the file open for writing or locked
+    static boolean isUnlocked(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return false;
+            }
+            lock.release();
+            return true;
+        } catch (OverlappingFileLockException e) {
+            // Locked by this program, e.g. a sort of the same folder in a batch
+            return false;
+        } catch (AccessDeniedException e) {
+            // A read-only file can still be moved, and nobody can be writing it
+            return true;
+        } catch (NoSuchFileException e) {
+            // Gone, the move reports it
+            return true;
+        } catch (IOException e) {
+            // Most often a sharing violation: another program has the file open
+            return false;
+        }
+    }
+
+    private void defer(Path item, long size, long modifiedTime, Deferred previous, long now) {
+        int attempts = previous != null ? previous.attempts + 1 : 1;
+        long backoff = Math.min(MAX_RETRY_MILLIS, FIRST_RETRY_MILLIS << Math.min(attempts - 1, 20));
+        // Not before the file can have settled
+        long settleTime = modifiedTime + settleMillis;
+        deferred.put(item, new Deferred(size, modifiedTime, attempts, Math.max(now + backoff, settleTime)));
+    }
+
+    public int getDeferredCount() {
+        return deferred.size();
+    }
+
+    // Method to return the deferred items whose retry time has come; items that are gone are forgotten
+    public java.util.List<Path> dueItems() {
+        long now = System.currentTimeMillis();
+        java.util.List<Path> due = new ArrayList<>();
+        for (Map.Entry<Path, Deferred> entry : deferred.entrySet()) {
+            if (entry.getValue().retryTime > now) {
+                continue;
+            }
+            if (Files.exists(entry.getKey(), LinkOption.NOFOLLOW_LINKS)) {
+                due.add(entry.getKey());
+            } else {
+                deferred.remove(entry.getKey());
+            }
+        }
+        return due;
+    }
+
+    // Method to return how long until the next deferred item is due, or -1 if nothing is deferred
+    public long millisUntilNextRetry() {
+        long next = Long.MAX_VALUE;
+        for (Deferred item : deferred.values()) {
+            next = Math.min(next, item.retryTime);
+        }
+        return next == Long.MAX_VALUE ? -1 : Math.max(0, next - System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Uses a SortJournal to finish the moves of an interrupted run, or to put a run's moves back
+public class JournalRecovery {
+
+    private final FileMover fileMover;
+    private final int threadCount;
+
+    // Outcome of a recovery or rollback
+    public static class Result {
+        public final AtomicInteger completed = new AtomicInteger();
+        public final AtomicInteger skipped = new AtomicInteger();
+        public final Map<Path, String> failures = new ConcurrentSkipListMap<>();
+    }
+
+    public JournalRecovery(FileMover fileMover, int threadCount) {
+        this.fileMover = fileMover;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    // Method to settle the moves that were started but not recorded as finished. A move whose source is gone
+    // and whose destination exists did happen; a move whose source is still there is done again.
+    public Result finishPending(SortJournal.Contents contents, SortJournal journal) {
+        Result result = new Result();
+
+        for (SortJournal.Entry entry : contents.entries.values()) {
+            if (entry.state != SortJournal.State.PENDING) {
+                continue;
+            }
+
+            boolean sourceExists = Files.exists(entry.source, LinkOption.NOFOLLOW_LINKS);
+            boolean destinationExists = Files.exists(entry.destination, LinkOption.NOFOLLOW_LINKS);
+
+            if (entry.dropped) {
+                // A duplicate that was not deleted yet is left for the next sort to compare again
+                if (sourceExists) {
+                    journal.logFailed(entry.sequence, "Duplicate left in place");
+                    result.skipped.incrementAndGet();
+                } else {
+                    journal.logDone(entry.sequence);
+                    result.completed.incrementAndGet();
+                }
+            } else if (!sourceExists && destinationExists) {
+                journal.logDone(entry.sequence);
+                result.completed.incrementAndGet();
+            } else if (sourceExists) {
+                try {
+                    // The destination is either missing or still the empty placeholder from before the crash
+                    if (!destinationExists) {
+                        createPlaceholder(entry.destination, Files.isDirectory(entry.source));
+                    }
+                    fileMover.move(entry.source, entry.destination);
+                    journal.logDone(entry.sequence);
+                    result.completed.incrementAndGet();
+                } catch (IOException e) {
+                    journal.logFailed(entry.sequence, e.toString());
+                    result.failures.put(entry.source, e.toString());
+                }
+            } else {
+                journal.logFailed(entry.sequence, "Neither source nor destination exists");
+                result.failures.put(entry.source, "Neither source nor destination exists");
+            }
+        }
+
+        return result;
+    }
+
+    // Method to move every item of a run back to where it came from. Dropped duplicates are put back first,
+    // one at a time, while the kept files they are copied from are still in place; the moves then run in parallel.
+    public Result rollback(SortJournal.Contents contents) throws IOException, InterruptedException {
+        Result result = new Result();
+        java.util.List<SortJournal.Entry> dropped = new ArrayList<>();
+        java.util.List<SortJournal.Entry> moved = new ArrayList<>();
+        for (SortJournal.Entry entry : contents.entries.values()) {
+            if (entry.state == SortJournal.State.DONE || entry.state == SortJournal.State.PENDING) {
+                (entry.dropped ? dropped : moved).add(entry);
+            }
+        }
+        Collections.reverse(dropped);
+        Collections.reverse(moved);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount, r -> {
+            Thread thread = new Thread(r, "rollback-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try (SortJournal journal = SortJournal.reopen(contents)) {
+            for (SortJournal.Entry entry : dropped) {
+                undo(entry, journal, result);
+            }
+            for (SortJournal.Entry entry : moved) {
+                workers.execute(() -> undo(entry, journal, result));
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+            if (result.failures.isEmpty()) {
+                journal.logRolledBack();
+            }
+        }
+
+        return result;
+    }
+
+    private void undo(SortJournal.Entry entry, SortJournal journal, Result result) {
+        // A pending move that never happened needs nothing but its placeholder removed
+        if (Files.exists(entry.source, LinkOption.NOFOLLOW_LINKS)) {
+            if (entry.state == SortJournal.State.PENDING) {
+                // The destination of a dropped duplicate is the kept file, not a placeholder
+                if (!entry.dropped) {
+                    removePlaceholder(entry.destination);
+                }
+                journal.logUndone(entry.sequence);
+                result.skipped.incrementAndGet();
+            } else {
+                result.failures.put(entry.source, "Something else now exists at the original location");
+            }
+            return;
+        }
+
+        if (!Files.exists(entry.destination, LinkOption.NOFOLLOW_LINKS)) {
+            result.failures.put(entry.source, "The sorted copy is gone: " + entry.destination);
+            return;
+        }
+
+        // A dropped duplicate is put back as a copy of the file that was kept
+        if (entry.dropped) {
+            try {
+                Path parent = entry.source.getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                Files.copy(entry.destination, entry.source, StandardCopyOption.COPY_ATTRIBUTES);
+                journal.logUndone(entry.sequence);
+                result.completed.incrementAndGet();
+            } catch (IOException e) {
+                result.failures.put(entry.source, e.toString());
+            }
+            return;
+        }
+
+        try {
+            Path parent = entry.source.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            createPlaceholder(entry.source, Files.isDirectory(entry.destination));
+            fileMover.move(entry.destination, entry.source);
+            journal.logUndone(entry.sequence);
+            result.completed.incrementAndGet();
+        } catch (IOException e) {
+            result.failures.put(entry.source, e.toString());
+        }
+    }
+
+    private static void createPlaceholder(Path path, boolean directory) throws IOException {
+        if (directory) {
+            Files.createDirectory(path);
+        } else {
+            Files.createFile(path);
+        }
+    }
+
+    private static void removePlaceholder(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Only an empty placeholder can be deleted, anything else stays
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+// The last listing of each folder shown in the window, kept on the local disk so a folder on a slow or
+// unreachable share can be shown straight away and replaced once it has been listed again. A cached
+// listing is only ever shown until the live one arrives, so a stale or missing cache does no harm.
+//
+// Layout: MAGIC, VERSION, folder, time listed, then the entries as written by DirectorySnapshot.
+public class ListingCache {
+
+    // Folder the cache files are kept in, next to the index folder
+    static final Path CACHE_FOLDER = Paths.get("cache");
+
+    private static final int MAGIC = 0x46534C43; // "FSLC"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "listing-";
+    private static final String EXTENSION = ".bin";
+
+    // Larger folders are not cached, reading them back would take about as long as listing them
+    private static final int MAX_ENTRIES = 200000;
+
+    // Number of folders kept; the ones written longest ago are deleted
+    private static final int FOLDERS_KEPT = 20;
+
+    // A cached listing with the time it was taken
+    public static class Cached {
+        final DirectorySnapshot snapshot;
+        final long listedTime;
+
+        Cached(DirectorySnapshot snapshot, long listedTime) {
+            this.snapshot = snapshot;
+            this.listedTime = listedTime;
+        }
+    }
+
+    // Method to read the last listing of a folder, or null if there is none
+    public static Cached read(Path folder) {
+        Path root = folder.toAbsolutePath().normalize();
+        Path file = fileFor(root);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.toString())) {
+                // Written by another version, or another folder with the same hash
+                return null;
+            }
+            long listedTime = in.readLong();
+            return new Cached(DirectorySnapshot.readFrom(in), listedTime);
+        } catch (IOException | RuntimeException e) {
+            // A damaged cache is replaced after the next listing
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Method to keep a listing for the next time the folder is shown
+    public static void write(Path folder, DirectorySnapshot snapshot) {
+        if (snapshot.size() > MAX_ENTRIES) {
+            return;
+        }
+        Path root = folder.toAbsolutePath().normalize();
+        Path file = fileFor(root);
+        Path temporaryFile = CACHE_FOLDER.resolve(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(CACHE_FOLDER);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(root.toString());
+                out.writeLong(System.currentTimeMillis());
+                snapshot.writeTo(out);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            deleteOldestFiles();
+        } catch (IOException e) {
+            // The cache is only a shortcut, the folder is listed again next time either way
+            e.printStackTrace();
+        }
+    }
+
+    static Path fileFor(Path root) {
+        return CACHE_FOLDER.resolve(PREFIX + Integer.toHexString(root.toString().hashCode()) + EXTENSION);
+    }
+
+    private static void deleteOldestFiles() throws IOException {
+        java.util.List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(CACHE_FOLDER, PREFIX + "*" + EXTENSION)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        if (files.size() <= FOLDERS_KEPT) {
+            return;
+        }
+
+        Map<Path, FileTime> writtenTimes = new HashMap<>();
+        for (Path file : files) {
+            writtenTimes.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort((a, b) -> writtenTimes.get(b).compareTo(writtenTimes.get(a)));
+        for (Path file : files.subList(FOLDERS_KEPT, files.size())) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
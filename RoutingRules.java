@@ -0,0 +1,469 @@
+import java.util.*;
+import java.util.regex.*;
+
+// A list of routing rules, one per line, tried in order; the first rule that matches picks the folder.
+//
+//   DIGITS 6                  -> {match}      first run of at least 6 digits
+//   PREFIX ACME               -> ACME         name starts with ACME, ignoring case
+//   DATE                      -> {match}      a date like 20240312 or 2024-03-12, as 2024-03-12
+//   EXTENSION mp4,trec        -> Recordings   files with one of the extensions
+//   SIZE >1GB                 -> Large        files over (or with <, under) a size; B, KB, MB and GB
+//   REGEX Case-(\d+)          -> {match}      regular expression, group 1 if present
+//
+// {match} in the folder stands for the matched text; without "->" the folder is {match}. Lines starting
+// with # are comments. EXTENSION and SIZE rules only look at files.
+//
+// The rules are compiled into one lookup structure per kind - a prefix trie, an extension map, sorted
+// digit counts and size thresholds, and a single combined regular expression - and a name is run through
+// each structure once. Each structure reports the first rule of its kind that matches, so the cost per
+// name does not grow with the number of DIGITS, PREFIX, DATE, EXTENSION or SIZE rules.
+public class RoutingRules extends TicketMatcher {
+
+    static final String MATCH_TOKEN = "{match}";
+
+    private static final int NO_RULE = Integer.MAX_VALUE;
+
+    // Group numbers change when the patterns are combined, so \1 would point at the wrong group
+    private static final Pattern NUMBERED_BACKREFERENCE = Pattern.compile("(?<!\\\\)\\\\[1-9]");
+
+    // A named group such as (?<id>...), but not a lookbehind (?<=...) or (?<!...)
+    private static final Pattern NAMED_GROUP = Pattern.compile("(?<!\\\\)\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+
+    // Names of the groups that mark which rule matched in the combined pattern
+    private static final Pattern RULE_MARKER_NAME = Pattern.compile("r[0-9]+");
+
+    // One line of the rule list
+    static class Rule {
+        final int priority;
+        final String kind;
+        final String argument;
+        final String folder;
+        int digitCount;
+        long sizeThreshold;
+        boolean sizeAbove;
+        TicketMatcher matcher;
+
+        Rule(int priority, String kind, String argument, String folder) {
+            this.priority = priority;
+            this.kind = kind;
+            this.argument = argument;
+            this.folder = folder;
+        }
+    }
+
+    // Prefix trie node; priority is that of the first rule whose prefix ends here
+    private static class TrieNode {
+        final Map<Character, TrieNode> children = new HashMap<>();
+        int priority = NO_RULE;
+    }
+
+    private final java.util.List<Rule> rules = new ArrayList<>();
+
+    // DIGITS rules sorted by digit count; firstDigitRule[i] is the first rule among the i + 1 smallest counts
+    private int[] digitCounts = new int[0];
+    private int[] firstDigitRule = new int[0];
+
+    private final TrieNode prefixTrie = new TrieNode();
+    private int firstDateRule = NO_RULE;
+    private final Map<String, Integer> extensionRules = new HashMap<>();
+
+    // SIZE rules sorted by threshold; "above" rules take the first rule of a prefix, "below" rules of a suffix
+    private long[] aboveThresholds = new long[0];
+    private int[] firstAboveRule = new int[0];
+    private long[] belowThresholds = new long[0];
+    private int[] firstBelowRule = new int[0];
+
+    // All REGEX rules as one pattern; alternatives are tried in rule order at the start of the name
+    private Pattern combinedRegex;
+    private ThreadLocal<Matcher> combinedMatchers;
+    private final java.util.List<Rule> regexRules = new ArrayList<>();
+    private int firstRegexRule = NO_RULE;
+
+    private RoutingRules() {
+    }
+
+    // Method to parse and compile the rule list; throws IllegalArgumentException naming the bad line
+    public static RoutingRules parse(String text) {
+        RoutingRules routingRules = new RoutingRules();
+        Set<String> groupNames = new HashSet<>();
+        String[] lines = text.split("\\R");
+        for (int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String line = lines[lineNumber - 1].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                routingRules.rules.add(parseRule(routingRules.rules.size(), line, groupNames));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        routingRules.compile();
+        return routingRules;
+    }
+
+    public int getRuleCount() {
+        return rules.size();
+    }
+
+    // Method to parse one line; groupNames holds the named groups of the REGEX rules so far, as all of them
+    // end up in one pattern
+    private static Rule parseRule(int priority, String line, Set<String> groupNames) {
+        String folder = MATCH_TOKEN;
+        int arrowIndex = line.lastIndexOf("->");
+        if (arrowIndex >= 0) {
+            folder = line.substring(arrowIndex + 2).trim();
+            line = line.substring(0, arrowIndex).trim();
+        }
+        if (!TicketMatcher.isFolderName(folder)) {
+            throw new IllegalArgumentException("The folder must be a single folder name");
+        }
+
+        int spaceIndex = line.indexOf(' ');
+        String kind = (spaceIndex < 0 ? line : line.substring(0, spaceIndex)).toUpperCase(Locale.ROOT);
+        String argument = spaceIndex < 0 ? "" : line.substring(spaceIndex + 1).trim();
+        Rule rule = new Rule(priority, kind, argument, folder);
+
+        switch (kind) {
+            case "DIGITS":
+                try {
+                    rule.digitCount = Integer.parseInt(argument);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("DIGITS needs a number of digits");
+                }
+                if (rule.digitCount < 1) {
+                    throw new IllegalArgumentException("DIGITS needs at least 1 digit");
+                }
+                rule.matcher = TicketMatcher.digits(rule.digitCount);
+                break;
+            case "PREFIX":
+            case "EXTENSION":
+                if (argument.isEmpty()) {
+                    throw new IllegalArgumentException(kind + " needs a value");
+                }
+                break;
+            case "DATE":
+                break;
+            case "SIZE":
+                parseSize(rule, argument);
+                break;
+            case "REGEX":
+                if (argument.isEmpty()) {
+                    throw new IllegalArgumentException("REGEX needs a pattern");
+                }
+                if (NUMBERED_BACKREFERENCE.matcher(argument).find()) {
+                    throw new IllegalArgumentException("REGEX rules cannot use numbered backreferences, use a named group instead");
+                }
+                rule.matcher = TicketMatcher.pattern(argument);
+                Matcher namedGroup = NAMED_GROUP.matcher(argument);
+                while (namedGroup.find()) {
+                    String name = namedGroup.group(1);
+                    if (RULE_MARKER_NAME.matcher(name).matches()) {
+                        throw new IllegalArgumentException("REGEX rules cannot name a group \"" + name + "\", names like r1 are reserved");
+                    }
+                    if (!groupNames.add(name)) {
+                        throw new IllegalArgumentException("The group name \"" + name + "\" is already used by an earlier REGEX rule");
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rule \"" + kind + "\", expected DIGITS, PREFIX, DATE, EXTENSION, SIZE or REGEX");
+        }
+        return rule;
+    }
+
+    private static void parseSize(Rule rule, String argument) {
+        String size = argument.replace(" ", "").toUpperCase(Locale.ROOT);
+        if (size.isEmpty() || (size.charAt(0) != '>' && size.charAt(0) != '<')) {
+            throw new IllegalArgumentException("SIZE needs > or < and a size, e.g. >100MB");
+        }
+        rule.sizeAbove = size.charAt(0) == '>';
+        size = size.substring(1);
+
+        long multiplier = 1;
+        String[] units = {"GB", "MB", "KB", "B"};
+        long[] multipliers = {1024L * 1024 * 1024, 1024L * 1024, 1024L, 1L};
+        for (int i = 0; i < units.length; i++) {
+            if (size.endsWith(units[i])) {
+                multiplier = multipliers[i];
+                size = size.substring(0, size.length() - units[i].length());
+                break;
+            }
+        }
+        try {
+            rule.sizeThreshold = (long) (Double.parseDouble(size) * multiplier);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("SIZE needs a size, e.g. >100MB");
+        }
+    }
+
+    // Method to build the lookup structures; rules are visited in priority order, so the first rule wins ties
+    private void compile() {
+        java.util.List<Rule> digitRules = new ArrayList<>();
+        java.util.List<Rule> aboveRules = new ArrayList<>();
+        java.util.List<Rule> belowRules = new ArrayList<>();
+        StringBuilder regex = new StringBuilder();
+
+        for (Rule rule : rules) {
+            switch (rule.kind) {
+                case "DIGITS":
+                    digitRules.add(rule);
+                    break;
+                case "PREFIX":
+                    TrieNode node = prefixTrie;
+                    for (char c : rule.argument.toLowerCase(Locale.ROOT).toCharArray()) {
+                        node = node.children.computeIfAbsent(c, k -> new TrieNode());
+                    }
+                    node.priority = Math.min(node.priority, rule.priority);
+                    break;
+                case "DATE":
+                    firstDateRule = Math.min(firstDateRule, rule.priority);
+                    break;
+                case "EXTENSION":
+                    for (String extension : rule.argument.split(",")) {
+                        String key = extension.trim().toLowerCase(Locale.ROOT);
+                        if (key.startsWith(".")) {
+                            key = key.substring(1);
+                        }
+                        extensionRules.putIfAbsent(key, rule.priority);
+                    }
+                    break;
+                case "SIZE":
+                    (rule.sizeAbove ? aboveRules : belowRules).add(rule);
+                    break;
+                case "REGEX":
+                    // Each alternative looks ahead from the start of the name, like find(), and marks itself with an empty group
+                    regex.append(regex.length() == 0 ? "" : "|")
+                            .append("(?=[\\s\\S]*?(?:").append(rule.argument).append("))(?<r").append(regexRules.size()).append(">)");
+                    regexRules.add(rule);
+                    firstRegexRule = Math.min(firstRegexRule, rule.priority);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        digitRules.sort(Comparator.comparingInt(rule -> rule.digitCount));
+        digitCounts = new int[digitRules.size()];
+        firstDigitRule = new int[digitRules.size()];
+        for (int i = 0; i < digitRules.size(); i++) {
+            digitCounts[i] = digitRules.get(i).digitCount;
+            firstDigitRule[i] = Math.min(i > 0 ? firstDigitRule[i - 1] : NO_RULE, digitRules.get(i).priority);
+        }
+
+        aboveRules.sort(Comparator.comparingLong(rule -> rule.sizeThreshold));
+        aboveThresholds = new long[aboveRules.size()];
+        firstAboveRule = new int[aboveRules.size()];
+        for (int i = 0; i < aboveRules.size(); i++) {
+            aboveThresholds[i] = aboveRules.get(i).sizeThreshold;
+            firstAboveRule[i] = Math.min(i > 0 ? firstAboveRule[i - 1] : NO_RULE, aboveRules.get(i).priority);
+        }
+
+        belowRules.sort(Comparator.comparingLong(rule -> rule.sizeThreshold));
+        belowThresholds = new long[belowRules.size()];
+        firstBelowRule = new int[belowRules.size()];
+        for (int i = belowRules.size() - 1; i >= 0; i--) {
+            belowThresholds[i] = belowRules.get(i).sizeThreshold;
+            firstBelowRule[i] = Math.min(i < belowRules.size() - 1 ? firstBelowRule[i + 1] : NO_RULE, belowRules.get(i).priority);
+        }
+
+        if (!regexRules.isEmpty()) {
+            combinedRegex = Pattern.compile("^(?:" + regex + ")");
+            combinedMatchers = ThreadLocal.withInitial(() -> combinedRegex.matcher(""));
+        }
+    }
+
+    // A folder has no size, so only the name rules apply
+    @Override
+    public String match(CharSequence name) {
+        return match(name, -1);
+    }
+
+    @Override
+    public String match(CharSequence name, long size) {
+        int best = NO_RULE;
+        String bestMatch = null;
+
+        // DIGITS: one scan finds the longest digit run, which decides which digit counts can match
+        if (digitCounts.length > 0) {
+            int longestRun = longestDigitRun(name);
+            int last = lastAtMost(digitCounts, longestRun);
+            if (last >= 0 && firstDigitRule[last] < best) {
+                best = firstDigitRule[last];
+                bestMatch = rules.get(best).matcher.match(name);
+            }
+        }
+
+        // PREFIX: walk the trie along the name, remembering the first rule whose prefix ends on the way
+        TrieNode node = prefixTrie;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            node = node.children.get(Character.toLowerCase(name.charAt(i)));
+            if (node != null && node.priority < best) {
+                best = node.priority;
+                bestMatch = name.subSequence(0, i + 1).toString();
+            }
+        }
+
+        if (firstDateRule < best) {
+            String date = findDate(name);
+            if (date != null) {
+                best = firstDateRule;
+                bestMatch = date;
+            }
+        }
+
+        if (size >= 0) {
+            String extension = extensionOf(name);
+            Integer extensionRule = extension != null ? extensionRules.get(extension) : null;
+            if (extensionRule != null && extensionRule < best) {
+                best = extensionRule;
+                bestMatch = extension;
+            }
+
+            int lastAbove = lastBelow(aboveThresholds, size);
+            if (lastAbove >= 0 && firstAboveRule[lastAbove] < best) {
+                best = firstAboveRule[lastAbove];
+                bestMatch = Long.toString(size);
+            }
+            int firstBelow = lastAtMost(belowThresholds, size) + 1;
+            if (firstBelow < belowThresholds.length && firstBelowRule[firstBelow] < best) {
+                best = firstBelowRule[firstBelow];
+                bestMatch = Long.toString(size);
+            }
+        }
+
+        // REGEX last, and only if a regex rule comes before everything that matched so far
+        if (firstRegexRule < best) {
+            Matcher matcher = combinedMatchers.get().reset(name);
+            if (matcher.lookingAt()) {
+                for (int i = 0; i < regexRules.size(); i++) {
+                    Rule rule = regexRules.get(i);
+                    if (rule.priority >= best) {
+                        break;
+                    }
+                    if (matcher.group("r" + i) != null) {
+                        // Run the rule's own pattern once more for its capturing group
+                        String regexMatch = rule.matcher.match(name);
+                        if (regexMatch != null) {
+                            best = rule.priority;
+                            bestMatch = regexMatch;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (best == NO_RULE || bestMatch == null) {
+            return null;
+        }
+        // The matched text comes from the name, so the folder it makes is checked like the one in the rule
+        String folder = rules.get(best).folder.replace(MATCH_TOKEN, bestMatch).trim();
+        return TicketMatcher.isFolderName(folder) ? folder : null;
+    }
+
+    private static int longestDigitRun(CharSequence name) {
+        int longest = 0;
+        int run = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            run = c >= '0' && c <= '9' ? run + 1 : 0;
+            longest = Math.max(longest, run);
+        }
+        return longest;
+    }
+
+    // Method to find a date written as yyyyMMdd or yyyy-MM-dd (also with _ or .), returned as yyyy-MM-dd
+    private static String findDate(CharSequence name) {
+        int length = name.length();
+        for (int start = 0; start + 8 <= length; start++) {
+            // A date starts at the beginning of a digit run
+            if (!isDigit(name, start) || (start > 0 && isDigit(name, start - 1))) {
+                continue;
+            }
+            int runEnd = start;
+            while (runEnd < length && isDigit(name, runEnd)) {
+                runEnd++;
+            }
+
+            if (runEnd - start == 8) {
+                String date = validDate(name, start, start + 4, start + 6);
+                if (date != null) {
+                    return date;
+                }
+            } else if (runEnd - start == 4 && runEnd + 6 <= length) {
+                char separator = name.charAt(runEnd);
+                if ((separator == '-' || separator == '_' || separator == '.')
+                        && isDigit(name, runEnd + 1) && isDigit(name, runEnd + 2) && name.charAt(runEnd + 3) == separator
+                        && isDigit(name, runEnd + 4) && isDigit(name, runEnd + 5)
+                        && (runEnd + 6 == length || !isDigit(name, runEnd + 6))) {
+                    String date = validDate(name, start, runEnd + 1, runEnd + 4);
+                    if (date != null) {
+                        return date;
+                    }
+                }
+            }
+            start = runEnd;
+        }
+        return null;
+    }
+
+    private static String validDate(CharSequence name, int yearStart, int monthStart, int dayStart) {
+        int year = Integer.parseInt(name.subSequence(yearStart, yearStart + 4).toString());
+        int month = Integer.parseInt(name.subSequence(monthStart, monthStart + 2).toString());
+        int day = Integer.parseInt(name.subSequence(dayStart, dayStart + 2).toString());
+        if (year < 1970 || year > 2099 || month < 1 || month > 12 || day < 1 || day > 31) {
+            return null;
+        }
+        return new StringBuilder(10).append(name, yearStart, yearStart + 4).append('-')
+                .append(name, monthStart, monthStart + 2).append('-').append(name, dayStart, dayStart + 2).toString();
+    }
+
+    private static boolean isDigit(CharSequence name, int index) {
+        char c = name.charAt(index);
+        return c >= '0' && c <= '9';
+    }
+
+    private static String extensionOf(CharSequence name) {
+        for (int i = name.length() - 1; i > 0; i--) {
+            if (name.charAt(i) == '.') {
+                return i == name.length() - 1 ? null : name.subSequence(i + 1, name.length()).toString().toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+
+    // Index of the last value <= key in a sorted array, or -1
+    private static int lastAtMost(int[] values, int key) {
+        int low = 0;
+        int high = values.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private static int lastAtMost(long[] values, long key) {
+        int low = 0;
+        int high = values.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    // Index of the last value < key in a sorted array, or -1
+    private static int lastBelow(long[] values, long key) {
+        return key == Long.MIN_VALUE ? -1 : lastAtMost(values, key - 1);
+    }
+}
@@ -0,0 +1,628 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sorts the files in a source folder into ticket folders under a destination folder.
+// One thread walks the source tree and feeds a bounded queue, a pool of workers does the moves.
+// An engine can run again and again, as in watch mode; the workers, the ticket folders found and the names
+// handed out are kept between runs, and the counts add up over all of them.
+public class SortEngine {
+
+    // Callback for progress reporting, called from the worker threads
+    public interface Listener {
+        void itemMoved(Path source, Path destination, String commonNumberPart);
+
+        void itemFailed(Path source, IOException e);
+    }
+
+    // Number of discovered items that may wait for a worker before the walk blocks
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Marker telling a worker that discovery is finished
+    private static final SortItem END_OF_QUEUE = new SortItem(null, null, false);
+
+    private final Path sourceRoot;
+    private final Path destinationRoot;
+    private final int threadCount;
+    private final TicketMatcher ticketMatcher;
+    private final Listener listener;
+
+    private final BlockingQueue<SortItem> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // Destination names handed out during this run, per ticket folder
+    private final TicketFolderIndex ticketFolderIndex;
+    private final DestinationNameAllocator nameAllocator;
+    private FileMover fileMover = new FileMover(0);
+
+    // Ticket folders known to exist, so each one is checked or created once, not once per item
+    private final ConcurrentHashMap<String, Path> knownTicketFolders = new ConcurrentHashMap<>();
+
+    // Modified time of the destination folder as the last run left it, to notice ticket folders removed since
+    private long destinationRootModified = Long.MIN_VALUE;
+
+    // Shortest time between two saves of the ticket folder index, 0 to save after every run
+    private long indexSaveIntervalMillis = 0;
+    private long lastIndexSave = 0;
+
+    // Started by the first run and kept for the next ones; idle workers end after a while
+    private ThreadPoolExecutor workers;
+    private SortJournal journal;
+    private Deduplicator deduplicator;
+    private WalkFilter walkFilter = WalkFilter.NONE;
+    private IngestionGate ingestionGate;
+    private ContentScanner contentScanner;
+
+    private volatile boolean cancelled = false;
+    private volatile long scannedCount = 0;
+    private final AtomicInteger movedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicInteger deduplicatedCount = new AtomicInteger();
+    private final AtomicInteger deferredCount = new AtomicInteger();
+    private final SortMetrics metrics = SortMetrics.newRun();
+
+    // A file or directory waiting to be moved into a ticket folder
+    static class SortItem {
+        final Path source;
+        final String commonNumberPart; // Null for a file whose content is to be scanned for the ticket number
+        final boolean directory;
+
+        // Destination chosen by a plan, or null to pick a name at move time
+        final Path plannedDestination;
+
+        // Size and time the walk saw, for a file to be scanned
+        final long size;
+        final long modifiedTime;
+
+        SortItem(Path source, String commonNumberPart, boolean directory) {
+            this(source, commonNumberPart, directory, null);
+        }
+
+        SortItem(Path source, String commonNumberPart, boolean directory, Path plannedDestination) {
+            this.source = source;
+            this.commonNumberPart = commonNumberPart;
+            this.directory = directory;
+            this.plannedDestination = plannedDestination;
+            this.size = -1;
+            this.modifiedTime = -1;
+        }
+
+        SortItem(Path source, BasicFileAttributes attrs) {
+            this.source = source;
+            this.commonNumberPart = null;
+            this.directory = false;
+            this.plannedDestination = null;
+            this.size = attrs.size();
+            this.modifiedTime = attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    // Produces the items for the workers, on the thread that called run()
+    private interface Discovery {
+        void discover() throws IOException;
+    }
+
+    public SortEngine(Path sourceRoot, Path destinationRoot, int threadCount, TicketMatcher ticketMatcher, Listener listener) {
+        this.sourceRoot = sourceRoot;
+        this.destinationRoot = destinationRoot;
+        this.threadCount = Math.max(1, threadCount);
+        this.ticketMatcher = ticketMatcher;
+        this.listener = listener;
+        this.ticketFolderIndex = TicketFolderIndex.forDestination(destinationRoot);
+        this.nameAllocator = new DestinationNameAllocator(ticketFolderIndex);
+    }
+
+    // Method to set how items are moved, must be called before run()
+    public void setFileMover(FileMover fileMover) {
+        this.fileMover = fileMover;
+    }
+
+    // Method to record every move in a journal before it is made, must be called before run()
+    public void setJournal(SortJournal journal) {
+        this.journal = journal;
+    }
+
+    // Method to drop or hard-link files whose content is already in their ticket folder, must be called before run()
+    public void setDeduplicator(Deduplicator deduplicator) {
+        this.deduplicator = deduplicator.getMode() != Deduplicator.Mode.OFF ? deduplicator : null;
+    }
+
+    // Method to limit how deep the walk goes and which entries it leaves alone, must be called before run()
+    public void setWalkFilter(WalkFilter walkFilter) {
+        this.walkFilter = walkFilter;
+    }
+
+    // Method to leave files that are still being written for a later run, must be called before run()
+    public void setIngestionGate(IngestionGate ingestionGate) {
+        this.ingestionGate = ingestionGate;
+    }
+
+    // Method to look inside files whose name has no ticket number, must be called before run()
+    public void setContentScanner(ContentScanner contentScanner) {
+        this.contentScanner = contentScanner;
+    }
+
+    // Method to save the ticket folder index at most once per interval, for an engine that runs every few seconds
+    public void setIndexSaveInterval(long millis) {
+        this.indexSaveIntervalMillis = millis;
+    }
+
+    // Method to write the ticket folder index now, e.g. before a long running engine is dropped
+    public void saveTicketFolderIndex() {
+        nameAllocator.updateTicketFolderIndex();
+        ticketFolderIndex.save();
+        lastIndexSave = System.nanoTime();
+    }
+
+    // Method to let the workers go once the engine will not run again; they would otherwise end when idle for a minute
+    public void close() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    // Method to stop the run; moves already in progress finish, nothing new is started
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getScannedCount() {
+        return scannedCount;
+    }
+
+    public int getMovedCount() {
+        return movedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    // Files that were dropped or hard-linked because the ticket folder already had them; counted as moved too
+    public int getDeduplicatedCount() {
+        return deduplicatedCount.get();
+    }
+
+    // Items left alone because they were still being written; the ingestion gate retries them later
+    public int getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    // Bytes copied so far by moves that crossed volumes
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    // Timings and counts of this run, also added to the totals shown over JMX
+    public SortMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Method to walk the source folder and move every matching item, blocking until all workers finish
+    public void run() throws IOException, InterruptedException {
+        run(Collections.singletonList(sourceRoot));
+    }
+
+    // Method to sort only the given items of the source folder; directories that do not match are walked
+    public void run(Collection<Path> startPaths) throws IOException, InterruptedException {
+        runWorkers(() -> {
+            for (Path startPath : startPaths) {
+                if (cancelled) {
+                    break;
+                }
+                try {
+                    discover(startPath);
+                } catch (NoSuchFileException e) {
+                    // The item was moved or deleted since it was reported, unless it is the source folder itself
+                    if (startPath.equals(sourceRoot)) {
+                        throw e;
+                    }
+                }
+            }
+        });
+    }
+
+    // Method to carry out a plan made by SortPlanner, moving each item to the name the plan chose for it
+    public void run(SortPlan plan) throws IOException, InterruptedException {
+        runWorkers(() -> {
+            for (SortPlan.PlannedMove move : plan.getMoves()) {
+                scannedCount++;
+                if (!enqueue(new SortItem(move.source, move.commonNumberPart, move.directory, move.destination))) {
+                    break;
+                }
+            }
+        });
+    }
+
+    private void runWorkers(Discovery discovery) throws IOException, InterruptedException {
+        // Ticket folders archived or deleted since the last run must not be taken as still there
+        long rootModified = modifiedTime(destinationRoot);
+        if (rootModified != destinationRootModified) {
+            knownTicketFolders.clear();
+            nameAllocator.forgetFolders();
+
+            // An up to date index already says which ticket folders exist
+            java.util.List<String> indexedTicketFolders = ticketFolderIndex.rootFolderNames();
+            if (indexedTicketFolders != null) {
+                for (String ticket : indexedTicketFolders) {
+                    knownTicketFolders.putIfAbsent(ticket, destinationRoot.resolve(ticket));
+                }
+            }
+        }
+
+        // Platform threads, sized by the Sort Threads setting; the build targets Java 11, which has no virtual threads
+        if (workers == null) {
+            workers = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sort-worker-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            workers.allowCoreThreadTimeOut(true);
+        }
+
+        java.util.List<Future<?>> workerLoops = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            workerLoops.add(workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }));
+        }
+
+        long walkStart = System.nanoTime();
+        try {
+            discovery.discover();
+        } finally {
+            metrics.walk.recordSince(walkStart);
+            metrics.filesScanned.add(scannedCount);
+
+            // Wake every worker up once the walk is over, even if it failed
+            for (int i = 0; i < threadCount; i++) {
+                queue.put(END_OF_QUEUE);
+            }
+            for (Future<?> workerLoop : workerLoops) {
+                try {
+                    workerLoop.get();
+                } catch (ExecutionException e) {
+                    // workerLoop() catches what a move throws, so this is an Error
+                    throw new IOException("A sort worker stopped", e.getCause());
+                }
+            }
+            destinationRootModified = modifiedTime(destinationRoot);
+
+            // Remember the ticket folders as this run left them; the file is written less often
+            nameAllocator.updateTicketFolderIndex();
+            if (lastIndexSave == 0 || System.nanoTime() - lastIndexSave >= TimeUnit.MILLISECONDS.toNanos(indexSaveIntervalMillis)) {
+                saveTicketFolderIndex();
+            }
+        }
+    }
+
+    private static long modifiedTime(Path folder) {
+        try {
+            return Files.getLastModifiedTime(folder).toMillis();
+        } catch (IOException e) {
+            return Long.MIN_VALUE + 1;
+        }
+    }
+
+    private void discover(Path startPath) throws IOException {
+        int walkDepth = walkFilter.walkDepth(sourceRoot, startPath);
+        if (walkDepth < 0) {
+            return;
+        }
+
+        // The attributes come with the directory listing, on Windows without a separate stat per entry
+        Files.walkFileTree(startPath, EnumSet.noneOf(FileVisitOption.class), walkDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                scannedCount++;
+
+                if (cancelled) {
+                    return FileVisitResult.TERMINATE;
+                }
+
+                if (walkFilter.skips(sourceRoot, file, attrs)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                // A directory at the depth limit is still moved whole if its name matches
+                boolean directory = attrs.isDirectory();
+                if (directory && file.equals(destinationRoot)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                // Check for files with a ticket number in the title
+                long matchStart = System.nanoTime();
+                String commonNumberPart = directory ? ticketMatcher.match(file.getFileName().toString())
+                        : ticketMatcher.match(file.getFileName().toString(), attrs.size());
+                metrics.match.recordSince(matchStart);
+                if (commonNumberPart != null) {
+                    if (ingestionGate != null && !ingestionGate.admits(file, attrs)) {
+                        deferredCount.incrementAndGet();
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (!enqueue(new SortItem(file, commonNumberPart, directory))) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                } else if (contentScanner != null && attrs.isRegularFile()) {
+                    // The walk does not wait for the read, a worker scans the file and moves it if it has a ticket number
+                    if (!enqueue(new SortItem(file, attrs))) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (cancelled) {
+                    return FileVisitResult.TERMINATE;
+                }
+
+                // Never move the source folder itself
+                if (dir.equals(sourceRoot)) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                // Leave excluded and hidden folders alone, and a destination inside the source holds sorted items already
+                if (walkFilter.skips(sourceRoot, dir, attrs) || dir.equals(destinationRoot)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                // Check for directories with a ticket number in the title
+                long matchStart = System.nanoTime();
+                String commonNumberPart = ticketMatcher.match(dir.getFileName().toString());
+                metrics.match.recordSince(matchStart);
+                if (commonNumberPart != null) {
+                    // A folder still being filled is left whole for later, not sorted into
+                    if (ingestionGate != null && !ingestionGate.admits(dir, attrs)) {
+                        deferredCount.incrementAndGet();
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (!enqueue(new SortItem(dir, commonNumberPart, true))) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    // The whole directory is moved, so there is nothing to sort inside it
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // Method to hand an item to the workers, giving up if the run is cancelled while the queue is full
+    private boolean enqueue(SortItem item) throws InterruptedIOException {
+        try {
+            while (!cancelled) {
+                if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sort interrupted");
+        }
+    }
+
+    private void workerLoop() {
+        try {
+            while (true) {
+                SortItem item = queue.take();
+                if (item == END_OF_QUEUE) {
+                    return;
+                }
+                // Drain the queue without moving anything once cancelled
+                if (!cancelled) {
+                    moveItem(item);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Method to return the ticket folder, creating it the first time any worker needs it.
+    // computeIfAbsent makes workers that want the same new folder wait for the one creating it.
+    private Path ticketFolder(String commonNumberPart) throws IOException {
+        // A ticket number from a pattern is only used if it names one folder right under the destination
+        if (!TicketMatcher.isFolderName(commonNumberPart)) {
+            throw new IOException("Not a valid ticket folder name: " + commonNumberPart);
+        }
+        try {
+            return knownTicketFolders.computeIfAbsent(commonNumberPart, ticket -> {
+                Path folder = destinationRoot.resolve(ticket);
+                try {
+                    Files.createDirectory(folder);
+                    // A folder made just now is empty, the allocator does not need to list it
+                    nameAllocator.folderCreated(folder);
+                } catch (FileAlreadyExistsException e) {
+                    // Made before this run or by someone else, unless a file has the ticket's name
+                    if (!Files.isDirectory(folder)) {
+                        throw new UncheckedIOException(new FileAlreadyExistsException(folder.toString(), null, "A file has the ticket folder's name"));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return folder;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void moveItem(SortItem item) {
+        Path destination;
+        try {
+            if (item.commonNumberPart == null) {
+                item = scanContent(item);
+                if (item == null) {
+                    return;
+                }
+            }
+            // Checked again right before the move, the file may have been opened since the walk saw it
+            if (ingestionGate != null && !ingestionGate.admitsToMove(item.source)) {
+                deferredCount.incrementAndGet();
+                return;
+            }
+            Path destinationFolder = ticketFolder(item.commonNumberPart);
+            if (deduplicator != null && !item.directory) {
+                destination = moveFileDeduplicated(item, destinationFolder);
+            } else {
+                destination = moveToTicketFolder(item, destinationFolder, null);
+            }
+        } catch (IOException e) {
+            itemFailed(item, e);
+            return;
+        } catch (RuntimeException e) {
+            // Such as an invalid path; one bad item must not take its worker down and leave the queue full
+            itemFailed(item, new IOException(e.toString(), e));
+            return;
+        }
+        movedCount.incrementAndGet();
+        metrics.itemsMoved.increment();
+        listener.itemMoved(item.source, destination, item.commonNumberPart);
+    }
+
+    private void itemFailed(SortItem item, IOException e) {
+        failedCount.incrementAndGet();
+        metrics.itemsFailed.increment();
+        listener.itemFailed(item.source, e);
+    }
+
+    // Method to return the item with the ticket number found in its content, or null if it has none
+    private SortItem scanContent(SortItem item) {
+        long scanStart = System.nanoTime();
+        try {
+            String commonNumberPart = contentScanner.scan(item.source, item.size, item.modifiedTime);
+            return commonNumberPart != null ? new SortItem(item.source, commonNumberPart, false) : null;
+        } catch (InterruptedIOException e) {
+            cancelled = true;
+            return null;
+        } finally {
+            metrics.contentScan.recordSince(scanStart);
+        }
+    }
+
+    // Method to sort a file unless the ticket folder already holds the same content; then the file is
+    // dropped or hard-linked to the copy that is there. Files of the same size going into the same folder
+    // are handled one at a time, so two identical new files cannot both miss each other.
+    private Path moveFileDeduplicated(SortItem item, Path destinationFolder) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(item.source, BasicFileAttributes.class);
+        Deduplicator.Bucket bucket = deduplicator.bucket(destinationFolder, attrs.size());
+
+        synchronized (bucket) {
+            Path duplicate = deduplicator.findDuplicate(bucket, item.source, attrs);
+            if (duplicate != null && deduplicator.getMode() == Deduplicator.Mode.DROP) {
+                dropDuplicate(item.source, duplicate);
+                deduplicatedCount.incrementAndGet();
+                return duplicate;
+            }
+
+            Path destination = moveToTicketFolder(item, destinationFolder, duplicate);
+            deduplicator.added(bucket, item.source, destination);
+            return destination;
+        }
+    }
+
+    // Method to move an item into its ticket folder under a free name, or with linkTarget, to put a hard
+    // link to that file there instead and delete the item
+    private Path moveToTicketFolder(SortItem item, Path destinationFolder, Path linkTarget) throws IOException {
+        Path destination = null;
+        long journalSequence = 0;
+
+        try {
+            String name = item.source.getFileName().toString();
+            long namingStart = System.nanoTime();
+            if (item.plannedDestination != null) {
+                destination = nameAllocator.reserve(item.plannedDestination, name, item.directory);
+            } else {
+                destination = nameAllocator.allocate(destinationFolder, name, item.directory);
+            }
+            metrics.naming.recordSince(namingStart);
+            // Nothing is moved until the journal has the move on disk
+            if (journal != null) {
+                journalSequence = journal.logIntent(item.source, destination);
+            }
+            if (linkTarget == null || !replaceWithLink(destination, linkTarget)) {
+                boolean sameVolume = fileMover.isSameStore(item.source, destination);
+                long moveStart = System.nanoTime();
+                fileMover.move(item.source, destination, (source, bytes) -> {
+                    copiedBytes.addAndGet(bytes);
+                    metrics.bytesCopied.add(bytes);
+                });
+                (sameVolume ? metrics.moveSameVolume : metrics.moveCrossVolume).recordSince(moveStart);
+            } else {
+                Files.delete(item.source);
+                deduplicatedCount.incrementAndGet();
+            }
+            if (journal != null) {
+                journal.logDone(journalSequence);
+            }
+            return destination;
+        } catch (IOException e) {
+            if (destination != null) {
+                nameAllocator.release(destination);
+            }
+            if (journalSequence > 0) {
+                journal.logFailed(journalSequence, e.toString());
+            }
+            throw e;
+        }
+    }
+
+    // Method to swap the placeholder for a hard link; false if the volume has no hard links. The link is
+    // made under a temporary name and renamed over the placeholder, so the name is never free on disk.
+    private static boolean replaceWithLink(Path placeholder, Path linkTarget) throws IOException {
+        Path temporaryLink = placeholder.resolveSibling("." + placeholder.getFileName() + "." + UUID.randomUUID() + ".link");
+        try {
+            Files.createLink(temporaryLink, linkTarget);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            return false;
+        }
+        try {
+            try {
+                Files.move(temporaryLink, placeholder, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryLink, placeholder, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryLink);
+            throw e;
+        }
+        return true;
+    }
+
+    // Method to delete a file whose content is already in the ticket folder
+    private void dropDuplicate(Path source, Path duplicate) throws IOException {
+        long journalSequence = journal != null ? journal.logDropIntent(source, duplicate) : 0;
+        try {
+            Files.delete(source);
+            if (journal != null) {
+                journal.logDone(journalSequence);
+            }
+        } catch (IOException e) {
+            if (journalSequence > 0) {
+                journal.logFailed(journalSequence, e.toString());
+            }
+            throw e;
+        }
+    }
+}
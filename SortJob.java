@@ -0,0 +1,100 @@
+import java.nio.file.Path;
+import java.util.*;
+
+// One source folder sorted into one destination folder as part of a batch, with the state of its last run.
+// Jobs are saved in the registry as one "source -> destination" line each.
+public class SortJob {
+
+    public enum State {
+        IDLE("Idle"), QUEUED("Queued"), WAITING("Waiting for destination"), RUNNING("Sorting"),
+        DEFERRED("Waiting for files being written"), DONE("Done"), FAILED("Failed"), CANCELLED("Cancelled");
+
+        private final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final String SEPARATOR = "->";
+
+    String source;
+    String destination;
+
+    // Written by the scheduler and the running job, read by the status view
+    volatile State state = State.IDLE;
+    volatile SortEngine engine;
+    volatile String message = "";
+
+    // Kept for as long as the batch runs, so files still being written are sorted once they are done
+    volatile IngestionGate ingestionGate;
+
+    // Items a retry run sorts, or null to sort the whole source folder
+    volatile java.util.List<Path> retryItems;
+
+    // Counts of the earlier runs of this job in the batch, before a retry run
+    volatile long scannedBefore;
+    volatile int movedBefore;
+    volatile int failedBefore;
+
+    public SortJob(String source, String destination) {
+        this.source = source;
+        this.destination = destination;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getScannedCount() {
+        SortEngine running = engine;
+        return scannedBefore + (running != null ? running.getScannedCount() : 0);
+    }
+
+    public int getMovedCount() {
+        SortEngine running = engine;
+        return movedBefore + (running != null ? running.getMovedCount() : 0);
+    }
+
+    public int getFailedCount() {
+        SortEngine running = engine;
+        return failedBefore + (running != null ? running.getFailedCount() : 0);
+    }
+
+    // Method to read the saved jobs, skipping lines that are not "source -> destination"
+    public static java.util.List<SortJob> parseAll(String setting) {
+        java.util.List<SortJob> jobs = new ArrayList<>();
+        if (setting == null) {
+            return jobs;
+        }
+        for (String line : setting.split("\\R")) {
+            int separator = line.lastIndexOf(SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            String source = line.substring(0, separator).trim();
+            String destination = line.substring(separator + SEPARATOR.length()).trim();
+            if (!source.isEmpty() && !destination.isEmpty()) {
+                jobs.add(new SortJob(source, destination));
+            }
+        }
+        return jobs;
+    }
+
+    // Method to write the jobs in the form parseAll() reads
+    public static String formatAll(java.util.List<SortJob> jobs) {
+        StringBuilder setting = new StringBuilder();
+        for (SortJob job : jobs) {
+            if (job.source.trim().isEmpty() || job.destination.trim().isEmpty()) {
+                continue;
+            }
+            setting.append(job.source.trim()).append(' ').append(SEPARATOR).append(' ').append(job.destination.trim()).append('\n');
+        }
+        return setting.toString();
+    }
+}
@@ -0,0 +1,101 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+
+// Table model for the batch sort window: one row per job with its folders, which can be edited while
+// nothing runs, and the state and counts of its current or last run.
+public class SortJobTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Source", "Destination", "Status", "Scanned", "Moved", "Failed", "Message"};
+
+    private final java.util.List<SortJob> jobs;
+    private boolean editable = true;
+
+    public SortJobTableModel(java.util.List<SortJob> jobs) {
+        this.jobs = jobs;
+    }
+
+    public java.util.List<SortJob> getJobs() {
+        return jobs;
+    }
+
+    // Method to lock the folders while the jobs run
+    public void setEditable(boolean editable) {
+        this.editable = editable;
+    }
+
+    public void addJob(SortJob job) {
+        jobs.add(job);
+        fireTableRowsInserted(jobs.size() - 1, jobs.size() - 1);
+    }
+
+    public void removeJob(int row) {
+        jobs.remove(row);
+        fireTableRowsDeleted(row, row);
+    }
+
+    // Method to repaint the status columns, the folders do not change while jobs run
+    public void refreshStatus() {
+        if (!jobs.isEmpty()) {
+            fireTableRowsUpdated(0, jobs.size() - 1);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return jobs.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column >= 3 && column <= 5 ? Long.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return editable && column <= 1;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        SortJob job = jobs.get(row);
+        switch (column) {
+            case 0:
+                return job.source;
+            case 1:
+                return job.destination;
+            case 2:
+                return job.getState().toString();
+            case 3:
+                return job.getScannedCount();
+            case 4:
+                return (long) job.getMovedCount();
+            case 5:
+                return (long) job.getFailedCount();
+            default:
+                return job.message;
+        }
+    }
+
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        SortJob job = jobs.get(row);
+        if (column == 0) {
+            job.source = value.toString().trim();
+        } else if (column == 1) {
+            job.destination = value.toString().trim();
+        }
+        fireTableCellUpdated(row, column);
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Append-only record of a sort run. Before an item is moved, its source and destination are written
+// and flushed to disk; afterwards the outcome is added. Writes from all workers are collected by one
+// writer thread and flushed together, so a busy run pays for one fsync per batch, not per move.
+//
+// Lines are tab separated:
+//   RUN <source root> <destination root>
+//   BEGIN <sequence> <source> <destination>
+//   DROP <sequence> <source> <identical file kept>
+//   DONE <sequence>
+//   FAIL <sequence> <reason>
+//   UNDONE <sequence>
+//   END | END abandoned | ROLLED_BACK
+public class SortJournal implements Closeable {
+
+    // Folder the journals are kept in, next to preferences.txt
+    static final Path JOURNAL_FOLDER = Paths.get("journals");
+
+    private static final String EXTENSION = ".journal";
+
+    // Number of journals kept; older finished ones are deleted when a new run starts
+    private static final int JOURNALS_KEPT = 20;
+
+    // Outcome of a journaled move
+    public enum State {
+        PENDING, DONE, FAILED, UNDONE
+    }
+
+    // One move as read back from a journal
+    public static class Entry {
+        public final long sequence;
+        public final Path source;
+        public final Path destination;
+        public State state = State.PENDING;
+
+        // The source was deleted because the destination already had the same content
+        public boolean dropped = false;
+
+        Entry(long sequence, Path source, Path destination) {
+            this.sequence = sequence;
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+
+    // Everything a journal file says about its run
+    public static class Contents {
+        public final Path file;
+        public Path sourceRoot;
+        public Path destinationRoot;
+        public final Map<Long, Entry> entries = new LinkedHashMap<>();
+        public boolean ended = false;
+        public boolean rolledBack = false;
+
+        Contents(Path file) {
+            this.file = file;
+        }
+
+        public int count(State state) {
+            int count = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.state == state) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    // A line waiting for the writer thread
+    private static class PendingWrite {
+        final byte[] bytes;
+        final boolean durable;
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        PendingWrite(byte[] bytes, boolean durable) {
+            this.bytes = bytes;
+            this.durable = durable;
+        }
+    }
+
+    private static final PendingWrite CLOSE = new PendingWrite(new byte[0], true);
+
+    // Journals still being written by a run of this process, never deleted as old
+    private static final Set<Path> OPEN_JOURNALS = ConcurrentHashMap.newKeySet();
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final AtomicLong nextSequence;
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    private SortJournal(Path file, long nextSequence, StandardOpenOption openOption) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, openOption, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.nextSequence = new AtomicLong(nextSequence);
+        OPEN_JOURNALS.add(file);
+
+        writerThread = new Thread(this::writeLoop, "sort-journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Method to start the journal for a new run. Jobs of a batch can start in the same millisecond, so
+    // each gets a file of its own with a numbered name; "_" sorts after the "." of the plain name.
+    public static synchronized SortJournal create(Path sourceRoot, Path destinationRoot) throws IOException {
+        Files.createDirectories(JOURNAL_FOLDER);
+        deleteOldJournals();
+
+        String baseName = "sort-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        SortJournal journal = null;
+        for (int attempt = 0; journal == null; attempt++) {
+            String name = baseName + (attempt > 0 ? "_" + attempt : "") + EXTENSION;
+            try {
+                journal = new SortJournal(JOURNAL_FOLDER.resolve(name), 1, StandardOpenOption.CREATE_NEW);
+            } catch (FileAlreadyExistsException e) {
+                // Taken by a run that started at the same time
+            }
+        }
+        journal.write(line("RUN", sourceRoot.toAbsolutePath().toString(), destinationRoot.toAbsolutePath().toString()));
+        return journal;
+    }
+
+    // Method to continue writing to the journal of an interrupted run
+    public static SortJournal reopen(Contents contents) throws IOException {
+        long highestSequence = 0;
+        for (long sequence : contents.entries.keySet()) {
+            highestSequence = Math.max(highestSequence, sequence);
+        }
+        terminateTornLine(contents.file);
+        return new SortJournal(contents.file, highestSequence + 1, StandardOpenOption.APPEND);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Method to record a move before it happens; returns once the record is on disk
+    public long logIntent(Path source, Path destination) throws IOException {
+        long sequence = nextSequence.getAndIncrement();
+        write(line("BEGIN", Long.toString(sequence), source.toAbsolutePath().toString(), destination.toAbsolutePath().toString()));
+        return sequence;
+    }
+
+    // Method to record, before it happens, that a file is deleted because an identical file is kept at duplicate
+    public long logDropIntent(Path source, Path duplicate) throws IOException {
+        long sequence = nextSequence.getAndIncrement();
+        write(line("DROP", Long.toString(sequence), source.toAbsolutePath().toString(), duplicate.toAbsolutePath().toString()));
+        return sequence;
+    }
+
+    // Method to record a finished move; it is flushed with the next batch, recovery can tell from the disk if it is lost
+    public void logDone(long sequence) {
+        queue(line("DONE", Long.toString(sequence)), false);
+    }
+
+    public void logFailed(long sequence, String reason) {
+        queue(line("FAIL", Long.toString(sequence), reason == null ? "" : reason), false);
+    }
+
+    public void logUndone(long sequence) {
+        queue(line("UNDONE", Long.toString(sequence)), false);
+    }
+
+    // Method to mark the run complete, so it is not offered for resuming
+    public void logEnd() throws IOException {
+        write(line("END"));
+    }
+
+    public void logRolledBack() throws IOException {
+        write(line("ROLLED_BACK"));
+    }
+
+    // Method to flush whatever is queued and stop the writer thread
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pendingWrites.add(CLOSE);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        OPEN_JOURNALS.remove(file);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        PendingWrite pendingWrite = queue(bytes, true);
+        try {
+            pendingWrite.written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the sort journal");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private PendingWrite queue(byte[] bytes, boolean durable) {
+        PendingWrite pendingWrite = new PendingWrite(bytes, durable);
+        if (closed) {
+            pendingWrite.written.completeExceptionally(new IOException("Sort journal is closed"));
+        } else {
+            pendingWrites.add(pendingWrite);
+        }
+        return pendingWrite;
+    }
+
+    // Writer thread: takes everything queued so far, writes it in one go and flushes once if anyone waits on it
+    private void writeLoop() {
+        java.util.List<PendingWrite> batch = new ArrayList<>();
+        boolean closing = false;
+
+        while (!closing) {
+            batch.clear();
+            try {
+                batch.add(pendingWrites.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            pendingWrites.drainTo(batch);
+
+            int size = 0;
+            boolean needsForce = false;
+            for (PendingWrite pendingWrite : batch) {
+                size += pendingWrite.bytes.length;
+                needsForce |= pendingWrite.durable;
+                closing |= pendingWrite == CLOSE;
+            }
+
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (PendingWrite pendingWrite : batch) {
+                    buffer.put(pendingWrite.bytes);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (needsForce) {
+                    channel.force(false);
+                }
+                for (PendingWrite pendingWrite : batch) {
+                    pendingWrite.written.complete(null);
+                }
+            } catch (IOException e) {
+                for (PendingWrite pendingWrite : batch) {
+                    pendingWrite.written.completeExceptionally(e);
+                }
+            }
+        }
+
+        // Anything that raced with close() is never written
+        PendingWrite leftOver;
+        while ((leftOver = pendingWrites.poll()) != null) {
+            leftOver.written.completeExceptionally(new IOException("Sort journal is closed"));
+        }
+    }
+
+    // Method to read a journal back; a torn last line from a crash is ignored
+    public static Contents read(Path file) throws IOException {
+        Contents contents = new Contents(file);
+
+        for (String line : readCompleteLines(file)) {
+            String[] fields = line.split("\t", -1);
+            try {
+                switch (fields[0]) {
+                    case "RUN":
+                        contents.sourceRoot = Paths.get(unescape(fields[1]));
+                        contents.destinationRoot = Paths.get(unescape(fields[2]));
+                        break;
+                    case "BEGIN":
+                    case "DROP":
+                        long sequence = Long.parseLong(fields[1]);
+                        Entry entry = new Entry(sequence, Paths.get(unescape(fields[2])), Paths.get(unescape(fields[3])));
+                        entry.dropped = fields[0].equals("DROP");
+                        contents.entries.put(sequence, entry);
+                        break;
+                    case "DONE":
+                        setState(contents, fields[1], State.DONE);
+                        break;
+                    case "FAIL":
+                        setState(contents, fields[1], State.FAILED);
+                        break;
+                    case "UNDONE":
+                        setState(contents, fields[1], State.UNDONE);
+                        break;
+                    case "END":
+                        contents.ended = true;
+                        break;
+                    case "ROLLED_BACK":
+                        contents.rolledBack = true;
+                        break;
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // An incomplete line, written when the process died
+            }
+        }
+
+        return contents;
+    }
+
+    // Method to read the lines that were written in full. A line cut off when the process died has no line
+    // end and may end in half a character, so it is left out rather than failing the whole journal; bytes
+    // that are not valid UTF-8 elsewhere are replaced instead of failing it.
+    private static java.util.List<String> readCompleteLines(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        java.util.List<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+                lineStart = i + 1;
+            }
+        }
+        return lines;
+    }
+
+    // Method to end a line cut off when the process died, so what is appended next starts on a line of its own
+    private static void terminateTornLine(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) {
+                return;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                channel.write(ByteBuffer.wrap(new byte[]{'\n'}), size);
+            }
+        }
+    }
+
+    private static void setState(Contents contents, String sequence, State state) {
+        Entry entry = contents.entries.get(Long.parseLong(sequence));
+        if (entry != null) {
+            entry.state = state;
+        }
+    }
+
+    // Method to list the journal files, newest first
+    public static java.util.List<Path> list() throws IOException {
+        java.util.List<Path> journals = new ArrayList<>();
+        if (!Files.isDirectory(JOURNAL_FOLDER)) {
+            return journals;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(JOURNAL_FOLDER, "*" + EXTENSION)) {
+            for (Path journal : stream) {
+                journals.add(journal);
+            }
+        }
+        // The timestamp in the name sorts the same way as the runs
+        journals.sort(Comparator.comparing((Path journal) -> journal.getFileName().toString()).reversed());
+        return journals;
+    }
+
+    // Method to find the newest run that neither finished nor was rolled back, or null
+    public static Contents findInterrupted() throws IOException {
+        for (Path journal : list()) {
+            Contents contents = read(journal);
+            if (!contents.ended && !contents.rolledBack && contents.sourceRoot != null) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    // Method to find the newest run that moved something and has not been rolled back, or null
+    public static Contents findUndoable() throws IOException {
+        for (Path journal : list()) {
+            Contents contents = read(journal);
+            if (!contents.rolledBack && contents.count(State.DONE) + contents.count(State.PENDING) > 0) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    // Method to mark an interrupted run as not to be resumed
+    public static void markAbandoned(Path file) throws IOException {
+        terminateTornLine(file);
+        Files.write(file, line("END", "abandoned"), StandardOpenOption.APPEND);
+    }
+
+    // Journals of runs still going, such as the other jobs of a batch, are neither counted nor deleted, and an
+    // interrupted run is kept however old it is, until it is resumed, abandoned or undone
+    private static void deleteOldJournals() throws IOException {
+        int kept = 0;
+        for (Path journal : list()) {
+            if (OPEN_JOURNALS.contains(journal) || ++kept < JOURNALS_KEPT) {
+                continue;
+            }
+            Contents contents;
+            try {
+                contents = read(journal);
+            } catch (IOException e) {
+                // Not readable now, looked at again by the next run
+                continue;
+            }
+            if (contents.ended || contents.rolledBack) {
+                Files.deleteIfExists(journal);
+            }
+        }
+    }
+
+    private static byte[] line(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(escape(fields[i]));
+        }
+        line.append('\n');
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Paths may hold tabs or line breaks, which would break the line format
+    private static String escape(String field) {
+        return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String field) {
+        StringBuilder result = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
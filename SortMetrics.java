@@ -0,0 +1,374 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+// Counters and latency histograms for sorting. Each run records into its own SortMetrics, which passes
+// every value on to the process-wide totals; the totals are published over JMX as
+// "FileSorter:type=SortMetrics", and each run is written to a report file under reports/.
+public class SortMetrics implements SortMetricsMBean {
+
+    // Folder the run reports are written to, next to preferences.txt
+    static final Path REPORT_FOLDER = Paths.get("reports");
+
+    // Number of reports kept
+    private static final int REPORTS_KEPT = 50;
+
+    static final String OBJECT_NAME = "FileSorter:type=SortMetrics";
+
+    private static SortMetrics totals;
+
+    // Latency histogram with 8 buckets per power of two, so percentiles are within about 10%
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final String name;
+        private final Histogram parent;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Histogram(String name, Histogram parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Method to record one duration
+        public void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            if (parent != null) {
+                parent.record(nanos);
+            }
+        }
+
+        // Method to record the time since a System.nanoTime() taken before the operation
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMeanMillis() {
+            long samples = count.sum();
+            return samples == 0 ? 0 : totalNanos.sum() / (double) samples / 1e6;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        // Method to estimate a percentile, e.g. 0.99, in milliseconds
+        public double getPercentileMillis(double percentile) {
+            long samples = count.sum();
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * samples);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(bucketMiddle(i), maxNanos.get()) / 1e6;
+                }
+            }
+            return getMaxMillis();
+        }
+
+        private static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        private static double bucketMiddle(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) / 2.0;
+        }
+    }
+
+    // Counter that also adds to the same counter of the totals
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+        private final Counter parent;
+
+        Counter(Counter parent) {
+            this.parent = parent;
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+            if (parent != null) {
+                parent.add(amount);
+            }
+        }
+
+        public void increment() {
+            add(1);
+        }
+
+        public long sum() {
+            return value.sum();
+        }
+    }
+
+    private final long startMillis = System.currentTimeMillis();
+
+    // Time to walk the source tree once per run, per name match, per content scan, per destination name, per move, and per file list refresh
+    public final Histogram walk;
+    public final Histogram match;
+    public final Histogram contentScan;
+    public final Histogram naming;
+    public final Histogram moveSameVolume;
+    public final Histogram moveCrossVolume;
+    public final Histogram listRefresh;
+
+    public final Counter runs;
+    public final Counter filesScanned;
+    public final Counter itemsMoved;
+    public final Counter itemsFailed;
+    public final Counter bytesCopied;
+
+    private SortMetrics(SortMetrics parent) {
+        walk = new Histogram("walk", parent != null ? parent.walk : null);
+        match = new Histogram("match", parent != null ? parent.match : null);
+        contentScan = new Histogram("contentScan", parent != null ? parent.contentScan : null);
+        naming = new Histogram("naming", parent != null ? parent.naming : null);
+        moveSameVolume = new Histogram("move.sameVolume", parent != null ? parent.moveSameVolume : null);
+        moveCrossVolume = new Histogram("move.crossVolume", parent != null ? parent.moveCrossVolume : null);
+        listRefresh = new Histogram("listRefresh", parent != null ? parent.listRefresh : null);
+        runs = new Counter(parent != null ? parent.runs : null);
+        filesScanned = new Counter(parent != null ? parent.filesScanned : null);
+        itemsMoved = new Counter(parent != null ? parent.itemsMoved : null);
+        itemsFailed = new Counter(parent != null ? parent.itemsFailed : null);
+        bytesCopied = new Counter(parent != null ? parent.bytesCopied : null);
+    }
+
+    // Method to get the totals for this process, registering them with JMX the first time
+    public static synchronized SortMetrics totals() {
+        if (totals == null) {
+            totals = new SortMetrics(null);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(totals, new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                // Metrics still work without JMX
+                e.printStackTrace();
+            }
+        }
+        return totals;
+    }
+
+    // Method to start the metrics of one run
+    public static SortMetrics newRun() {
+        SortMetrics run = new SortMetrics(totals());
+        run.runs.increment();
+        return run;
+    }
+
+    java.util.List<Histogram> histograms() {
+        return Arrays.asList(walk, match, contentScan, naming, moveSameVolume, moveCrossVolume, listRefresh);
+    }
+
+    // Method to write the run as JSON under reports/, returns the file
+    public Path writeReport(Path sourceRoot, Path destinationRoot, int threadCount) throws IOException {
+        Files.createDirectories(REPORT_FOLDER);
+        deleteOldReports();
+
+        String started = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startMillis));
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"started\": ").append(quote(started)).append(",\n");
+        json.append("  \"durationMillis\": ").append(System.currentTimeMillis() - startMillis).append(",\n");
+        json.append("  \"host\": ").append(quote(hostName())).append(",\n");
+        json.append("  \"source\": ").append(quote(sourceRoot.toAbsolutePath().toString())).append(",\n");
+        json.append("  \"destination\": ").append(quote(destinationRoot.toAbsolutePath().toString())).append(",\n");
+        json.append("  \"threads\": ").append(threadCount).append(",\n");
+        json.append("  \"filesScanned\": ").append(filesScanned.sum()).append(",\n");
+        json.append("  \"itemsMoved\": ").append(itemsMoved.sum()).append(",\n");
+        json.append("  \"itemsFailed\": ").append(itemsFailed.sum()).append(",\n");
+        json.append("  \"bytesCopied\": ").append(bytesCopied.sum()).append(",\n");
+        json.append("  \"latencies\": {\n");
+        java.util.List<Histogram> histograms = histograms();
+        for (int i = 0; i < histograms.size(); i++) {
+            Histogram histogram = histograms.get(i);
+            json.append("    ").append(quote(histogram.getName())).append(": {")
+                    .append("\"count\": ").append(histogram.getCount())
+                    .append(", \"totalMillis\": ").append(format(histogram.getTotalMillis()))
+                    .append(", \"meanMillis\": ").append(format(histogram.getMeanMillis()))
+                    .append(", \"p50Millis\": ").append(format(histogram.getPercentileMillis(0.50)))
+                    .append(", \"p90Millis\": ").append(format(histogram.getPercentileMillis(0.90)))
+                    .append(", \"p99Millis\": ").append(format(histogram.getPercentileMillis(0.99)))
+                    .append(", \"maxMillis\": ").append(format(histogram.getMaxMillis()))
+                    .append(i < histograms.size() - 1 ? "},\n" : "}\n");
+        }
+        json.append("  }\n");
+        json.append("}\n");
+
+        // Jobs of a batch can start in the same millisecond, each report gets a file of its own
+        String baseName = "sort-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(startMillis));
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        for (int attempt = 0; ; attempt++) {
+            Path report = REPORT_FOLDER.resolve(baseName + (attempt > 0 ? "_" + attempt : "") + ".json");
+            try {
+                Files.write(report, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                return report;
+            } catch (FileAlreadyExistsException e) {
+                // Taken by a run that started at the same time
+            }
+        }
+    }
+
+    private static void deleteOldReports() throws IOException {
+        java.util.List<Path> reports = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(REPORT_FOLDER, "sort-*.json")) {
+            for (Path report : stream) {
+                reports.add(report);
+            }
+        }
+        reports.sort(Comparator.comparing((Path report) -> report.getFileName().toString()).reversed());
+        for (int i = REPORTS_KEPT - 1; i < reports.size(); i++) {
+            Files.deleteIfExists(reports.get(i));
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return java.net.InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // Values read over JMX
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getFilesScanned() {
+        return filesScanned.sum();
+    }
+
+    @Override
+    public long getItemsMoved() {
+        return itemsMoved.sum();
+    }
+
+    @Override
+    public long getItemsFailed() {
+        return itemsFailed.sum();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    @Override
+    public double getWalkTotalMillis() {
+        return walk.getTotalMillis();
+    }
+
+    @Override
+    public double getMatchP99Millis() {
+        return match.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getContentScanCount() {
+        return contentScan.getCount();
+    }
+
+    @Override
+    public double getContentScanP99Millis() {
+        return contentScan.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getNamingP99Millis() {
+        return naming.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getSameVolumeMoveCount() {
+        return moveSameVolume.getCount();
+    }
+
+    @Override
+    public double getSameVolumeMoveP50Millis() {
+        return moveSameVolume.getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getSameVolumeMoveP99Millis() {
+        return moveSameVolume.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getCrossVolumeMoveCount() {
+        return moveCrossVolume.getCount();
+    }
+
+    @Override
+    public double getCrossVolumeMoveP50Millis() {
+        return moveCrossVolume.getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getCrossVolumeMoveP99Millis() {
+        return moveCrossVolume.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getListRefreshP99Millis() {
+        return listRefresh.getPercentileMillis(0.99);
+    }
+}
@@ -0,0 +1,37 @@
+// Totals of all sorts run by this process, as shown in JConsole under FileSorter:type=SortMetrics
+public interface SortMetricsMBean {
+
+    long getRuns();
+
+    long getFilesScanned();
+
+    long getItemsMoved();
+
+    long getItemsFailed();
+
+    long getBytesCopied();
+
+    double getWalkTotalMillis();
+
+    double getMatchP99Millis();
+
+    long getContentScanCount();
+
+    double getContentScanP99Millis();
+
+    double getNamingP99Millis();
+
+    long getSameVolumeMoveCount();
+
+    double getSameVolumeMoveP50Millis();
+
+    double getSameVolumeMoveP99Millis();
+
+    long getCrossVolumeMoveCount();
+
+    double getCrossVolumeMoveP50Millis();
+
+    double getCrossVolumeMoveP99Millis();
+
+    double getListRefreshP99Millis();
+}
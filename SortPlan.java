@@ -0,0 +1,116 @@
+import java.nio.file.*;
+import java.util.*;
+
+// The full set of moves a sort would make, worked out before anything is moved
+public class SortPlan {
+
+    // One item and where it would go
+    public static class PlannedMove {
+        public final Path source;
+        public final Path destination;
+        public final String commonNumberPart;
+        public final boolean directory;
+        public final long bytes;
+        public final boolean sameVolume;
+        public final boolean folderExists;
+
+        PlannedMove(Path source, Path destination, String commonNumberPart, boolean directory, long bytes,
+                    boolean sameVolume, boolean folderExists) {
+            this.source = source;
+            this.destination = destination;
+            this.commonNumberPart = commonNumberPart;
+            this.directory = directory;
+            this.bytes = bytes;
+            this.sameVolume = sameVolume;
+            this.folderExists = folderExists;
+        }
+    }
+
+    private final Path sourceRoot;
+    private final Path destinationRoot;
+    private final java.util.List<PlannedMove> moves;
+    private final long scannedCount;
+    private final long planningMillis;
+
+    SortPlan(Path sourceRoot, Path destinationRoot, java.util.List<PlannedMove> moves, long scannedCount, long planningMillis) {
+        this.sourceRoot = sourceRoot;
+        this.destinationRoot = destinationRoot;
+        this.moves = Collections.unmodifiableList(moves);
+        this.scannedCount = scannedCount;
+        this.planningMillis = planningMillis;
+    }
+
+    public Path getSourceRoot() {
+        return sourceRoot;
+    }
+
+    public Path getDestinationRoot() {
+        return destinationRoot;
+    }
+
+    public java.util.List<PlannedMove> getMoves() {
+        return moves;
+    }
+
+    public long getScannedCount() {
+        return scannedCount;
+    }
+
+    public long getPlanningMillis() {
+        return planningMillis;
+    }
+
+    // Method to count the distinct ticket folders the plan moves items into
+    public int getTicketCount() {
+        Set<String> tickets = new HashSet<>();
+        for (PlannedMove move : moves) {
+            tickets.add(move.commonNumberPart);
+        }
+        return tickets.size();
+    }
+
+    // Method to describe the plan in a few lines: counts, bytes and the same/cross volume split
+    public String getSummary() {
+        long totalBytes = 0;
+        int sameVolumeCount = 0;
+        long sameVolumeBytes = 0;
+        int crossVolumeCount = 0;
+        long crossVolumeBytes = 0;
+        Set<String> newTicketFolders = new HashSet<>();
+
+        for (PlannedMove move : moves) {
+            totalBytes += move.bytes;
+            if (!move.folderExists) {
+                newTicketFolders.add(move.commonNumberPart);
+            }
+            if (move.sameVolume) {
+                sameVolumeCount++;
+                sameVolumeBytes += move.bytes;
+            } else {
+                crossVolumeCount++;
+                crossVolumeBytes += move.bytes;
+            }
+        }
+
+        String lineSeparator = System.lineSeparator();
+        return moves.size() + " item(s) for " + getTicketCount() + " ticket folder(s), " + formatBytes(totalBytes)
+                + " (" + scannedCount + " scanned in " + planningMillis + " ms)" + lineSeparator
+                + "Same volume (rename): " + sameVolumeCount + " item(s), " + formatBytes(sameVolumeBytes) + lineSeparator
+                + "Cross volume (copy): " + crossVolumeCount + " item(s), " + formatBytes(crossVolumeBytes) + lineSeparator
+                + "New ticket folders to create: " + newTicketFolders.size();
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", value, units[unit]);
+    }
+}
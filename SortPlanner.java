@@ -0,0 +1,201 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Works out a SortPlan without moving anything. The source tree is scanned in parallel, one task per
+// folder, and destination names are resolved in memory, so planning speed does not depend on move I/O.
+public class SortPlanner {
+
+    private final Path sourceRoot;
+    private final Path destinationRoot;
+    private final TicketMatcher ticketMatcher;
+    private final FileMover fileMover;
+    private final int parallelism;
+    private WalkFilter walkFilter = WalkFilter.NONE;
+
+    private final LongAdder scannedCount = new LongAdder();
+
+    // A matching item found by the scan
+    private static class Candidate {
+        final Path source;
+        final String commonNumberPart;
+        final boolean directory;
+        final long bytes;
+
+        Candidate(Path source, String commonNumberPart, boolean directory, long bytes) {
+            this.source = source;
+            this.commonNumberPart = commonNumberPart;
+            this.directory = directory;
+            this.bytes = bytes;
+        }
+    }
+
+    public SortPlanner(Path sourceRoot, Path destinationRoot, TicketMatcher ticketMatcher, FileMover fileMover, int parallelism) {
+        this.sourceRoot = sourceRoot;
+        this.destinationRoot = destinationRoot;
+        this.ticketMatcher = ticketMatcher;
+        this.fileMover = fileMover;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // Method to limit how deep the scan goes and which entries it leaves alone, must be called before plan()
+    public void setWalkFilter(WalkFilter walkFilter) {
+        this.walkFilter = walkFilter;
+    }
+
+    // Method to scan the source folder and build the plan
+    public SortPlan plan() throws IOException {
+        long startTime = System.nanoTime();
+
+        if (!Files.isDirectory(sourceRoot)) {
+            throw new NoSuchFileException(sourceRoot.toString());
+        }
+
+        java.util.List<Candidate> candidates;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            candidates = pool.invoke(new ScanTask(sourceRoot, 0));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        // Resolve names ticket by ticket in a stable order, so the same tree always gives the same plan
+        candidates.sort(Comparator.comparing((Candidate candidate) -> candidate.commonNumberPart)
+                .thenComparing(candidate -> candidate.source.toString()));
+
+        TicketFolderIndex ticketFolderIndex = TicketFolderIndex.forDestination(destinationRoot);
+        DestinationNameAllocator nameAllocator = new DestinationNameAllocator(ticketFolderIndex);
+        Map<String, Boolean> folderExists = new HashMap<>();
+
+        // The indexed root listing answers "does the ticket folder exist" without a stat per ticket
+        java.util.List<String> rootFolderNames = ticketFolderIndex.rootFolderNames();
+        Set<String> indexedTicketFolders = rootFolderNames != null ? new HashSet<>(rootFolderNames) : null;
+        java.util.List<SortPlan.PlannedMove> moves = new ArrayList<>(candidates.size());
+
+        for (Candidate candidate : candidates) {
+            Path destinationFolder = destinationRoot.resolve(candidate.commonNumberPart);
+            boolean exists = folderExists.computeIfAbsent(candidate.commonNumberPart, k -> indexedTicketFolders != null
+                    ? indexedTicketFolders.contains(k) : Files.isDirectory(destinationFolder));
+            Path destination = nameAllocator.plan(destinationFolder, candidate.source.getFileName().toString(), candidate.directory);
+            boolean sameVolume = fileMover.isSameStore(candidate.source, destinationFolder);
+
+            moves.add(new SortPlan.PlannedMove(candidate.source, destination, candidate.commonNumberPart,
+                    candidate.directory, candidate.bytes, sameVolume, exists));
+        }
+
+        // Nothing is written while planning; the folders listed stay in the shared index, for the run to save
+        long planningMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        return new SortPlan(sourceRoot, destinationRoot, moves, scannedCount.sum(), planningMillis);
+    }
+
+    // Lists one folder, forking a task for every subfolder that has to be looked into
+    private class ScanTask extends RecursiveTask<java.util.List<Candidate>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+        private final int depth;
+
+        ScanTask(Path folder, int depth) {
+            this.folder = folder;
+            this.depth = depth;
+        }
+
+        @Override
+        protected java.util.List<Candidate> compute() {
+            java.util.List<Candidate> found = new ArrayList<>();
+            java.util.List<ScanTask> subfolderTasks = new ArrayList<>();
+            java.util.List<SizeTask> sizeTasks = new ArrayList<>();
+            boolean deeperAllowed = depth + 1 < walkFilter.getMaxDepth();
+
+            try {
+                // A walk one level deep lists the folder with each entry's attributes, which on Windows come
+                // with the listing instead of a separate stat per entry
+                Files.walkFileTree(folder, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                        scannedCount.increment();
+                        if (walkFilter.skips(sourceRoot, entry, attrs) || entry.equals(destinationRoot)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        String commonNumberPart = ticketMatcher.match(entry.getFileName().toString(), attrs.isDirectory() ? -1 : attrs.size());
+
+                        if (attrs.isDirectory()) {
+                            if (commonNumberPart != null) {
+                                // The whole folder moves, only its size is needed
+                                SizeTask sizeTask = new SizeTask(entry, commonNumberPart);
+                                sizeTask.fork();
+                                sizeTasks.add(sizeTask);
+                            } else if (deeperAllowed) {
+                                ScanTask subfolderTask = new ScanTask(entry, depth + 1);
+                                subfolderTask.fork();
+                                subfolderTasks.add(subfolderTask);
+                            }
+                        } else if (commonNumberPart != null) {
+                            found.add(new Candidate(entry, commonNumberPart, false, attrs.size()));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path entry, IOException exc) {
+                        // An entry that went away or cannot be read is left where it is
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                // Skip a subfolder that cannot be read, but report it for the source folder itself
+                if (folder.equals(sourceRoot)) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            for (SizeTask sizeTask : sizeTasks) {
+                found.add(sizeTask.join());
+            }
+            for (ScanTask subfolderTask : subfolderTasks) {
+                found.addAll(subfolderTask.join());
+            }
+            return found;
+        }
+    }
+
+    // Adds up the size of a folder that is moved as a whole
+    private class SizeTask extends RecursiveTask<Candidate> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+        private final String commonNumberPart;
+
+        SizeTask(Path folder, String commonNumberPart) {
+            this.folder = folder;
+            this.commonNumberPart = commonNumberPart;
+        }
+
+        @Override
+        protected Candidate compute() {
+            long[] bytes = new long[1];
+            try {
+                Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        bytes[0] += attrs.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                // Leave the size at what could be counted
+            }
+            return new Candidate(folder, commonNumberPart, true, bytes[0]);
+        }
+    }
+}
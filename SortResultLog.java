@@ -0,0 +1,172 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+
+// Results of a sort: every moved or failed item is appended to logs/sort-results.log, which is rotated
+// once it grows past 10 MB, and the most recent ones are kept in a fixed-size ring for the results
+// window. Memory use stays the same however many items a run moves.
+public class SortResultLog implements Closeable {
+
+    // Folder the result logs are written to, next to preferences.txt
+    static final Path LOG_FOLDER = Paths.get("logs");
+    static final Path LOG_FILE = LOG_FOLDER.resolve("sort-results.log");
+
+    // Size at which the log is rotated, and the number of rotated logs kept as sort-results.log.1 to .5
+    private static final long MAX_LOG_BYTES = 10L * 1024 * 1024;
+    private static final int ROTATED_LOGS_KEPT = 5;
+
+    // Number of results kept in memory for the results window
+    static final int RESULTS_KEPT = 10000;
+
+    // One moved or failed item
+    public static class Result {
+        final Instant time;
+        final boolean failed;
+        final Path source;
+        final String commonNumberPart;
+
+        // Where the item went, or null if it failed
+        final Path destination;
+
+        // Why the item failed, or null if it was moved
+        final String message;
+
+        Result(boolean failed, Path source, String commonNumberPart, Path destination, String message) {
+            this.time = Instant.now();
+            this.failed = failed;
+            this.source = source;
+            this.commonNumberPart = commonNumberPart;
+            this.destination = destination;
+            this.message = message;
+        }
+    }
+
+    private final Result[] recent = new Result[RESULTS_KEPT];
+    private long resultCount = 0;
+    private long movedCount = 0;
+    private long failedCount = 0;
+
+    // Null if the log could not be opened; results are then only kept in memory
+    private Writer writer;
+    private long logBytes;
+
+    private SortResultLog() {
+    }
+
+    // Method to start collecting the results of a run, appending to the current log
+    public static SortResultLog open() {
+        SortResultLog log = new SortResultLog();
+        try {
+            Files.createDirectories(LOG_FOLDER);
+            log.openWriter();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return log;
+    }
+
+    // Method to record a moved item, called from the worker threads
+    public void moved(Path source, Path destination, String commonNumberPart) {
+        add(new Result(false, source, commonNumberPart, destination, null));
+    }
+
+    // Method to record an item that could not be moved, called from the worker threads
+    public void failed(Path source, IOException e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.toString();
+        add(new Result(true, source, null, null, message));
+    }
+
+    private synchronized void add(Result result) {
+        recent[(int) (resultCount % RESULTS_KEPT)] = result;
+        resultCount++;
+        if (result.failed) {
+            failedCount++;
+        } else {
+            movedCount++;
+        }
+        write(result);
+    }
+
+    // Method to return the results still in memory, oldest first
+    public synchronized java.util.List<Result> recentResults() {
+        int kept = (int) Math.min(resultCount, RESULTS_KEPT);
+        java.util.List<Result> results = new ArrayList<>(kept);
+        for (long i = resultCount - kept; i < resultCount; i++) {
+            results.add(recent[(int) (i % RESULTS_KEPT)]);
+        }
+        return results;
+    }
+
+    public synchronized long getResultCount() {
+        return resultCount;
+    }
+
+    public synchronized long getMovedCount() {
+        return movedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            writer = null;
+        }
+    }
+
+    // One tab-separated line per item: time, MOVED or FAILED, ticket folder, source, destination or error
+    private void write(Result result) {
+        if (writer == null) {
+            return;
+        }
+
+        String line = result.time + "\t" + (result.failed ? "FAILED" : "MOVED")
+                + "\t" + (result.commonNumberPart != null ? result.commonNumberPart : "")
+                + "\t" + result.source
+                + "\t" + (result.failed ? result.message.replaceAll("[\\t\\r\\n]+", " ") : result.destination)
+                + System.lineSeparator();
+        try {
+            if (logBytes > MAX_LOG_BYTES) {
+                rotate();
+            }
+            writer.write(line);
+            // Counted in characters, close enough to bytes for deciding when to rotate
+            logBytes += line.length();
+        } catch (IOException e) {
+            // Keep the results in memory, the log is only a record
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        writer = null;
+        Files.deleteIfExists(rotatedLog(ROTATED_LOGS_KEPT));
+        for (int i = ROTATED_LOGS_KEPT - 1; i >= 1; i--) {
+            if (Files.exists(rotatedLog(i))) {
+                Files.move(rotatedLog(i), rotatedLog(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(LOG_FILE, rotatedLog(1), StandardCopyOption.REPLACE_EXISTING);
+        openWriter();
+    }
+
+    private void openWriter() throws IOException {
+        writer = Files.newBufferedWriter(LOG_FILE, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        logBytes = Files.size(LOG_FILE);
+    }
+
+    private static Path rotatedLog(int number) {
+        return LOG_FOLDER.resolve(LOG_FILE.getFileName() + "." + number);
+    }
+}
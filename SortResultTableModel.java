@@ -0,0 +1,106 @@
+import javax.swing.table.AbstractTableModel;
+import java.nio.file.*;
+import java.util.*;
+
+// Table model for the results window. Holds the results kept by a SortResultLog and the row numbers of
+// those that pass the filter, so filtering never copies the results and the table only asks for the rows
+// it paints.
+public class SortResultTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] COLUMN_NAMES = {"Status", "Item", "Ticket Folder", "Destination / Error"};
+
+    private final java.util.List<SortResultLog.Result> results;
+    private final Path sourceRoot;
+    private final Path destinationRoot;
+
+    // Indexes into results of the rows shown
+    private int[] shownRows;
+    private int shownCount;
+    private int shownFailedCount;
+
+    public SortResultTableModel(java.util.List<SortResultLog.Result> results, Path sourceRoot, Path destinationRoot) {
+        this.results = results;
+        this.sourceRoot = sourceRoot;
+        this.destinationRoot = destinationRoot;
+        this.shownRows = new int[results.size()];
+        setFilter("", false);
+    }
+
+    // Method to show only the results containing the text in any column, and only failures if asked
+    public void setFilter(String text, boolean failedOnly) {
+        String needle = text.trim().toLowerCase(Locale.ROOT);
+        shownCount = 0;
+        shownFailedCount = 0;
+        for (int i = 0; i < results.size(); i++) {
+            SortResultLog.Result result = results.get(i);
+            if (failedOnly && !result.failed) {
+                continue;
+            }
+            if (!needle.isEmpty() && !matches(result, needle)) {
+                continue;
+            }
+            shownRows[shownCount++] = i;
+            if (result.failed) {
+                shownFailedCount++;
+            }
+        }
+        fireTableDataChanged();
+    }
+
+    public int getShownCount() {
+        return shownCount;
+    }
+
+    public int getShownFailedCount() {
+        return shownFailedCount;
+    }
+
+    private boolean matches(SortResultLog.Result result, String needle) {
+        for (int column = 1; column < COLUMN_NAMES.length; column++) {
+            if (text(result, column).toLowerCase(Locale.ROOT).contains(needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getRowCount() {
+        return shownCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return text(results.get(shownRows[row]), column);
+    }
+
+    private String text(SortResultLog.Result result, int column) {
+        switch (column) {
+            case 0:
+                return result.failed ? "Failed" : "Moved";
+            case 1:
+                return relativize(sourceRoot, result.source);
+            case 2:
+                return result.commonNumberPart != null ? result.commonNumberPart : "";
+            default:
+                return result.failed ? result.message : relativize(destinationRoot, result.destination);
+        }
+    }
+
+    // Results of a batch come from several folders and are shown with their full paths
+    private static String relativize(Path root, Path path) {
+        return root != null && path.startsWith(root) ? root.relativize(path).toString() : path.toString();
+    }
+}
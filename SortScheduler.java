@@ -0,0 +1,199 @@
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs a batch of SortJobs at the same time. At most a given number of jobs run at once overall, and
+// each destination folder has its own Semaphore limiting the jobs sorting into it, so a slow share only
+// holds back the jobs that sort into that share. A job whose destination is busy stays queued without
+// taking a thread, and the queue is looked at again whenever a job finishes.
+//
+// A job that left files alone because they were still being written is queued again when its ingestion
+// gate says the first of them is due, and then only sorts those files. The batch is finished once no job
+// is running, queued or waiting for such a retry.
+public class SortScheduler {
+
+    // Does the actual sorting for one job, on a scheduler thread; sets job.engine once it has one
+    public interface JobRunner {
+        void run(SortJob job) throws Exception;
+    }
+
+    private final int concurrentJobs;
+    private final int jobsPerDestination;
+    private final JobRunner jobRunner;
+    private final ExecutorService pool;
+    private final ScheduledExecutorService retryTimer;
+
+    private final ConcurrentHashMap<Path, Semaphore> destinationSlots = new ConcurrentHashMap<>();
+
+    // Jobs not started yet, in the order they were given; guarded by this
+    private final java.util.List<SortJob> pending = new ArrayList<>();
+    private int runningCount = 0;
+    private int retryCount = 0; // Jobs waiting for their deferred files
+    private boolean cancelled = false;
+    private Runnable onFinished;
+
+    public SortScheduler(int concurrentJobs, int jobsPerDestination, JobRunner jobRunner) {
+        this.concurrentJobs = Math.max(1, concurrentJobs);
+        this.jobsPerDestination = Math.max(1, jobsPerDestination);
+        this.jobRunner = jobRunner;
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.pool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "sort-job-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sort-job-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Method to queue the jobs and start as many as the limits allow; onFinished runs on a scheduler thread after the last one
+    public synchronized void start(java.util.List<SortJob> jobs, Runnable onFinished) {
+        this.onFinished = onFinished;
+        for (SortJob job : jobs) {
+            job.state = SortJob.State.QUEUED;
+            job.engine = null;
+            job.message = "";
+            job.ingestionGate = null;
+            job.retryItems = null;
+            job.scannedBefore = 0;
+            job.movedBefore = 0;
+            job.failedBefore = 0;
+            pending.add(job);
+        }
+        dispatch();
+    }
+
+    // Method to cancel the running jobs and drop the queued ones
+    public synchronized void cancel(java.util.List<SortJob> jobs) {
+        cancelled = true;
+        for (SortJob job : pending) {
+            job.state = SortJob.State.CANCELLED;
+        }
+        pending.clear();
+        for (SortJob job : jobs) {
+            SortEngine engine = job.engine;
+            if (engine != null) {
+                engine.cancel();
+            }
+            // Deferred files are left for the next sort
+            if (job.state == SortJob.State.DEFERRED) {
+                job.state = SortJob.State.CANCELLED;
+            }
+        }
+        retryTimer.shutdownNow();
+        retryCount = 0;
+        finishIfDone();
+    }
+
+    // Start every queued job that has a free slot, both overall and at its destination
+    private void dispatch() {
+        Iterator<SortJob> iterator = pending.iterator();
+        while (iterator.hasNext() && runningCount < concurrentJobs && !cancelled) {
+            SortJob job = iterator.next();
+            Semaphore slots = destinationSlots.computeIfAbsent(destinationKey(job), k -> new Semaphore(jobsPerDestination));
+            if (!slots.tryAcquire()) {
+                job.state = SortJob.State.WAITING;
+                continue;
+            }
+            iterator.remove();
+            runningCount++;
+            job.state = SortJob.State.RUNNING;
+            pool.execute(() -> runJob(job, slots));
+        }
+        // Jobs that could not start because of the overall limit are just queued
+        for (SortJob job : pending) {
+            if (job.state != SortJob.State.WAITING) {
+                job.state = SortJob.State.QUEUED;
+            }
+        }
+        finishIfDone();
+    }
+
+    private void runJob(SortJob job, Semaphore slots) {
+        try {
+            jobRunner.run(job);
+            SortEngine engine = job.engine;
+            job.state = engine != null && engine.isCancelled() ? SortJob.State.CANCELLED : SortJob.State.DONE;
+        } catch (Exception e) {
+            e.printStackTrace();
+            job.message = e.getMessage() != null ? e.getMessage() : e.toString();
+            job.state = SortJob.State.FAILED;
+        } finally {
+            slots.release();
+            synchronized (this) {
+                runningCount--;
+                if (job.state == SortJob.State.DONE) {
+                    scheduleRetry(job);
+                }
+                // Waiting jobs are re-checked from the start, the freed slot may be theirs now
+                for (SortJob waiting : pending) {
+                    waiting.state = SortJob.State.QUEUED;
+                }
+                dispatch();
+            }
+        }
+    }
+
+    // Method to queue the job again when its first deferred file is due; guarded by this
+    private void scheduleRetry(SortJob job) {
+        IngestionGate ingestionGate = job.ingestionGate;
+        long delay = ingestionGate != null && !cancelled ? ingestionGate.millisUntilNextRetry() : -1;
+        if (delay < 0) {
+            return;
+        }
+        job.state = SortJob.State.DEFERRED;
+        retryCount++;
+        retryTimer.schedule(() -> retry(job), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void retry(SortJob job) {
+        if (cancelled) {
+            return;
+        }
+        retryCount--;
+        java.util.List<Path> dueItems = job.ingestionGate.dueItems();
+        if (dueItems.isEmpty()) {
+            // Gone, or not due after all; another retry is scheduled if any are left
+            job.state = SortJob.State.DONE;
+            scheduleRetry(job);
+            finishIfDone();
+            return;
+        }
+
+        // The retry run starts counting from zero, the job shows the total
+        SortEngine engine = job.engine;
+        if (engine != null) {
+            job.scannedBefore += engine.getScannedCount();
+            job.movedBefore += engine.getMovedCount();
+            job.failedBefore += engine.getFailedCount();
+            job.engine = null;
+        }
+        job.retryItems = dueItems;
+        job.state = SortJob.State.QUEUED;
+        pending.add(job);
+        dispatch();
+    }
+
+    private void finishIfDone() {
+        if (runningCount == 0 && pending.isEmpty() && retryCount == 0 && onFinished != null) {
+            Runnable finished = onFinished;
+            onFinished = null;
+            pool.shutdown();
+            retryTimer.shutdownNow();
+            finished.run();
+        }
+    }
+
+    // The same folder written two ways still shares its slots
+    private static Path destinationKey(SortJob job) {
+        try {
+            return Paths.get(job.destination).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return Paths.get("");
+        }
+    }
+}
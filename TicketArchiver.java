@@ -0,0 +1,311 @@
+import java.io.*;
+import java.net.URI;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
+
+// Packs ticket folders nobody has touched for a number of days into one zip per ticket in the destination
+// root (123456 becomes 123456.zip), so the root and every listing of it have fewer folders and files to go
+// through. Each folder is streamed into its archive through a fixed buffer, so memory does not grow with the
+// size of a ticket, and several folders are packed at once.
+//
+// A sort into an archived ticket simply creates the folder again; the next run appends that folder to the
+// existing archive instead of writing a second one. A folder is only deleted once its archive has been
+// checked against it, and then only what was packed is deleted.
+public class TicketArchiver {
+
+    static final String ARCHIVE_EXTENSION = ".zip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Zip entries keep their modification time to two seconds
+    private static final long ZIP_TIME_PRECISION_MILLIS = 2000;
+
+    // Already compressed, deflating them again only costs time
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "gz", "7z", "rar", "jpg", "jpeg", "png", "gif", "mp3", "mp4", "mov", "mkv", "avi", "trec"));
+
+    private final Path destinationRoot;
+    private final long idleMillis;
+    private final int threadCount;
+
+    private volatile boolean cancelled = false;
+    private final AtomicInteger archivedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicLong archivedBytes = new AtomicLong();
+
+    // A file of a ticket folder with the attributes read when the folder was walked
+    private static class FolderFile {
+        final Path path;
+        final long size;
+        final long modifiedTime;
+
+        FolderFile(Path path, long size, long modifiedTime) {
+            this.path = path;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+        }
+    }
+
+    // Everything in a ticket folder, and the newest modification time of the folder or anything in it
+    private static class FolderContents {
+        final java.util.List<FolderFile> files = new ArrayList<>();
+        final java.util.List<Path> emptyFolders = new ArrayList<>();
+        final java.util.List<Path> folders = new ArrayList<>(); // Parents before their subfolders
+        long newestModifiedTime = Long.MIN_VALUE;
+        long totalSize = 0;
+    }
+
+    public TicketArchiver(Path destinationRoot, int idleDays, int threadCount) {
+        this.destinationRoot = destinationRoot;
+        this.idleMillis = TimeUnit.DAYS.toMillis(Math.max(1, idleDays));
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    // Method to stop the run; folders being packed are finished, no new ones are started
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public int getArchivedCount() {
+        return archivedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    // Bytes of the files in the folders that were archived, before compression
+    public long getArchivedBytes() {
+        return archivedBytes.get();
+    }
+
+    // Method to archive every ticket folder that has been idle long enough, blocking until all are done
+    public void run() throws IOException, InterruptedException {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+
+        ExecutorService workers = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ticket-archiver-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            // The attributes come with the listing of the root, a recently changed folder is passed over without walking it
+            Files.walkFileTree(destinationRoot, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                    if (cancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isDirectory() && attrs.lastModifiedTime().toMillis() <= cutoff) {
+                        workers.execute(() -> archiveIfIdle(entry, cutoff));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void archiveIfIdle(Path folder, long cutoff) {
+        if (cancelled) {
+            return;
+        }
+        try {
+            FolderContents contents = readContents(folder);
+            if (contents.newestModifiedTime > cutoff) {
+                return;
+            }
+
+            Path archive = destinationRoot.resolve(folder.getFileName() + ARCHIVE_EXTENSION);
+            Map<String, Long> written = Files.exists(archive) ? appendTo(archive, folder, contents) : writeNew(archive, folder, contents);
+            verify(archive, written);
+
+            // Something was sorted into the folder while it was packed; keep it, the next run appends what is new
+            FolderContents after = readContents(folder);
+            if (after.newestModifiedTime != contents.newestModifiedTime || after.files.size() != contents.files.size()) {
+                return;
+            }
+            deletePacked(contents);
+            archivedCount.incrementAndGet();
+            archivedBytes.addAndGet(contents.totalSize);
+        } catch (IOException | RuntimeException e) {
+            // The folder stays as it is, the next run tries it again
+            failedCount.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    private static FolderContents readContents(Path folder) throws IOException {
+        FolderContents contents = new FolderContents();
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                contents.folders.add(dir);
+                contents.newestModifiedTime = Math.max(contents.newestModifiedTime, attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                long modifiedTime = attrs.lastModifiedTime().toMillis();
+                contents.files.add(new FolderFile(file, attrs.size(), modifiedTime));
+                contents.newestModifiedTime = Math.max(contents.newestModifiedTime, modifiedTime);
+                contents.totalSize += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                if (!dir.equals(folder) && isEmptyFolder(dir, contents)) {
+                    contents.emptyFolders.add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return contents;
+    }
+
+    // A folder with nothing below it needs an entry of its own to be kept in the archive
+    private static boolean isEmptyFolder(Path dir, FolderContents contents) {
+        int last = contents.files.size() - 1;
+        if (last >= 0 && contents.files.get(last).path.startsWith(dir)) {
+            return false;
+        }
+        int lastFolder = contents.emptyFolders.size() - 1;
+        return lastFolder < 0 || !contents.emptyFolders.get(lastFolder).startsWith(dir);
+    }
+
+    // Method to write the archive of a folder that has none yet; it appears under its name only once it is complete
+    private static Map<String, Long> writeNew(Path archive, Path folder, FolderContents contents) throws IOException {
+        Map<String, Long> written = new LinkedHashMap<>();
+        Path temporaryFile = archive.resolveSibling(archive.getFileName() + ".tmp");
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), BUFFER_SIZE))) {
+            for (FolderFile file : contents.files) {
+                String name = entryName(folder, file.path);
+                ZipEntry entry = new ZipEntry(name);
+                entry.setLastModifiedTime(FileTime.fromMillis(file.modifiedTime));
+                out.setLevel(isCompressed(name) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+                out.putNextEntry(entry);
+                try (InputStream in = Files.newInputStream(file.path)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+                written.put(name, file.size);
+            }
+            for (Path emptyFolder : contents.emptyFolders) {
+                out.putNextEntry(new ZipEntry(entryName(folder, emptyFolder) + "/"));
+                out.closeEntry();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, archive, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    // Method to add a folder to the archive its ticket already has. A file that is already in the archive
+    // with the same size and time is left out, e.g. after a run whose delete was cut short; another file
+    // under a taken name gets a numbered name, as a sort would give it.
+    private static Map<String, Long> appendTo(Path archive, Path folder, FolderContents contents) throws IOException {
+        Map<String, Long> written = new LinkedHashMap<>();
+        // New entries go through a temporary file rather than memory
+        Map<String, Object> env = Collections.singletonMap("useTempFile", Boolean.TRUE);
+
+        try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + archive.toUri()), env)) {
+            for (FolderFile file : contents.files) {
+                String name = entryName(folder, file.path);
+                Path target = zip.getPath(name);
+                if (Files.exists(target)) {
+                    BasicFileAttributes existing = Files.readAttributes(target, BasicFileAttributes.class);
+                    if (existing.size() == file.size
+                            && Math.abs(existing.lastModifiedTime().toMillis() - file.modifiedTime) <= ZIP_TIME_PRECISION_MILLIS) {
+                        written.put(name, file.size);
+                        continue;
+                    }
+                    String fileName = target.getFileName().toString();
+                    for (int copyIndex = 1; Files.exists(target); copyIndex++) {
+                        target = target.resolveSibling(DestinationNameAllocator.copyName(fileName, copyIndex, false));
+                    }
+                    name = target.toString();
+                }
+                if (target.getParent() != null) {
+                    Files.createDirectories(target.getParent());
+                }
+                Files.copy(file.path, target);
+                Files.setLastModifiedTime(target, FileTime.fromMillis(file.modifiedTime));
+                written.put(name, file.size);
+            }
+            for (Path emptyFolder : contents.emptyFolders) {
+                Files.createDirectories(zip.getPath(entryName(folder, emptyFolder)));
+            }
+        }
+        return written;
+    }
+
+    // Method to check that every file that was packed is in the archive with its full size
+    private static void verify(Path archive, Map<String, Long> written) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            for (Map.Entry<String, Long> file : written.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(file.getKey());
+                if (entry == null || entry.getSize() != file.getValue()) {
+                    throw new IOException("Archive " + archive + " is missing " + file.getKey() + ", the folder was kept");
+                }
+            }
+        }
+    }
+
+    // Zip entry names use '/' whatever the platform
+    private static String entryName(Path folder, Path item) {
+        StringBuilder name = new StringBuilder();
+        for (Path part : folder.relativize(item)) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(part);
+        }
+        return name.toString();
+    }
+
+    private static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // Method to delete what was packed. Only the packed files are deleted and a folder only once it is empty,
+    // so an item sorted into the ticket at the last moment stays and is appended by the next run.
+    private static void deletePacked(FolderContents contents) throws IOException {
+        for (FolderFile file : contents.files) {
+            Files.delete(file.path);
+        }
+        for (int i = contents.folders.size() - 1; i >= 0; i--) {
+            try {
+                Files.delete(contents.folders.get(i));
+            } catch (DirectoryNotEmptyException e) {
+                // Something new arrived
+            }
+        }
+    }
+}
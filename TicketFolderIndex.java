@@ -0,0 +1,397 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+
+// On-disk index of the destination folder: the names in the destination root and, for each ticket
+// folder, the names inside it. Every entry carries the folder's modification time when it was listed,
+// so a single stat tells whether the entry can be used instead of listing the folder again.
+//
+// The file is memory-mapped when it is opened; a folder's names are only decoded when they are asked for.
+// A stale entry can at worst make the allocator try a taken name, which its atomic create catches.
+//
+// Each destination has its own chain of index files, named after a hash of its root, so sorts into
+// several destinations do not replace each other's index.
+//
+// Layout: MAGIC, VERSION, destination root, root mtime, root names, the root names that are folders,
+// folder count, then per folder its name, mtime, byte length of its names and the names. A list of names is a count followed by the
+// names, each a byte length and UTF-8 bytes.
+public class TicketFolderIndex {
+
+    // Folder the index files are kept in, next to preferences.txt
+    static final Path INDEX_FOLDER = Paths.get("index");
+
+    private static final int MAGIC = 0x46535449; // "FSTI"
+    private static final int VERSION = 2;
+    private static final String PREFIX = "ticket-index-";
+    private static final String EXTENSION = ".bin";
+
+    // Number of destinations whose index is kept in memory
+    private static final int DESTINATIONS_KEPT = 16;
+
+    // Stands in for "never listed"
+    private static final long UNKNOWN_MTIME = Long.MIN_VALUE;
+
+    // Index of each destination used lately, the least recently used one is dropped first
+    private static final LinkedHashMap<Path, TicketFolderIndex> instances = new LinkedHashMap<Path, TicketFolderIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, TicketFolderIndex> eldest) {
+            if (size() <= DESTINATIONS_KEPT) {
+                return false;
+            }
+            eldest.getValue().refresher.shutdown();
+            return true;
+        }
+    };
+
+    // Names of one folder as they were at a given modification time
+    private static class Listing {
+        final long mtime;
+        final java.util.List<String> names;
+
+        Listing(long mtime, java.util.List<String> names) {
+            this.mtime = mtime;
+            this.names = names;
+        }
+    }
+
+    private final Path destinationRoot;
+    private final String filePrefix;
+    private final long generation;
+
+    // What was read from disk; folders are decoded from the mapped file on first use
+    private MappedByteBuffer mapped;
+    private Listing rootListing;
+    private java.util.List<String> rootFolderNames = Collections.emptyList();
+    private final Map<String, Integer> folderOffsets = new HashMap<>();
+
+    // Folders listed since the file was read, these win over the mapped entries
+    private final ConcurrentHashMap<String, Listing> folders = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ticket-index-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TicketFolderIndex(Path destinationRoot, long generation) {
+        this.destinationRoot = destinationRoot;
+        this.filePrefix = filePrefix(destinationRoot);
+        this.generation = generation;
+        this.rootListing = new Listing(UNKNOWN_MTIME, Collections.emptyList());
+    }
+
+    // Method to get the index of a destination folder, shared by everything that sorts into or shows it
+    public static synchronized TicketFolderIndex forDestination(Path destinationRoot) {
+        Path root = destinationRoot.toAbsolutePath().normalize();
+        TicketFolderIndex index = instances.get(root);
+        if (index == null) {
+            index = load(root);
+            instances.put(root, index);
+        }
+        return index;
+    }
+
+    private static String filePrefix(Path destinationRoot) {
+        return PREFIX + Integer.toHexString(destinationRoot.toString().hashCode()) + ".";
+    }
+
+    public Path getDestinationRoot() {
+        return destinationRoot;
+    }
+
+    // Method to return the names in the destination root, or null if the root changed since they were listed
+    public synchronized java.util.List<String> rootNames() {
+        if (rootListing.mtime == UNKNOWN_MTIME || rootListing.mtime != modifiedTime(destinationRoot)) {
+            return null;
+        }
+        return rootListing.names;
+    }
+
+    // Method to return the names of the folders in the destination root, or null if the root changed since
+    // they were listed. Files such as ticket archives are left out, only a folder can be sorted into.
+    public synchronized java.util.List<String> rootFolderNames() {
+        return rootNames() != null ? rootFolderNames : null;
+    }
+
+    // Method to list the destination root again in the background and save the result, if it is out of date
+    public void refreshRootNamesLater() {
+        if (refresher.isShutdown()) {
+            // Dropped for another destination while still in use; the next listing asks again
+            return;
+        }
+        refresher.execute(() -> {
+            if (rootNames() != null) {
+                return;
+            }
+            long mtime = modifiedTime(destinationRoot);
+            java.util.List<String> names = new ArrayList<>();
+            java.util.List<String> folderNames = new ArrayList<>();
+            try {
+                // A walk one level deep reads each entry's type with the listing on Windows
+                Files.walkFileTree(destinationRoot, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                        String name = entry.getFileName().toString();
+                        names.add(name);
+                        if (attrs.isDirectory()) {
+                            folderNames.add(name);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path entry, IOException exc) throws IOException {
+                        if (entry.equals(destinationRoot)) {
+                            throw exc;
+                        }
+                        names.add(entry.getFileName().toString());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (this) {
+                rootListing = new Listing(mtime, names);
+                rootFolderNames = folderNames;
+                dirty = true;
+            }
+            save();
+        });
+    }
+
+    // Method to return the names in a ticket folder, or null if the folder is not indexed or changed since.
+    // The modification time must be read before the caller lists the folder itself, see folderListed().
+    public java.util.List<String> folderNames(Path folder, FileTime modifiedTime) {
+        String ticket = ticketOf(folder);
+        if (ticket == null || modifiedTime == null) {
+            return null;
+        }
+        Listing listing = listingOf(ticket);
+        if (listing == null || listing.mtime != modifiedTime.toMillis()) {
+            return null;
+        }
+        return listing.names;
+    }
+
+    // Method to remember the names of a ticket folder, with the modification time read before listing it
+    public void folderListed(Path folder, FileTime modifiedTime, Collection<String> names) {
+        String ticket = ticketOf(folder);
+        if (ticket == null || modifiedTime == null) {
+            return;
+        }
+        folders.put(ticket, new Listing(modifiedTime.toMillis(), new ArrayList<>(names)));
+        dirty = true;
+    }
+
+    // Method to write the index if anything changed, as a new file so the mapped one is never rewritten
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        // Cleared first, so a folder listed while this is written marks the index dirty again
+        dirty = false;
+        // Batch jobs sorting into other destinations hold their own index, and all of them write the same folder
+        synchronized (TicketFolderIndex.class) {
+            writeNextGeneration();
+        }
+    }
+
+    private void writeNextGeneration() {
+        try {
+            Files.createDirectories(INDEX_FOLDER);
+            long nextGeneration = Math.max(generation, highestGeneration(filePrefix)) + 1;
+            Path file = INDEX_FOLDER.resolve(filePrefix + nextGeneration + EXTENSION);
+            Path temporaryFile = INDEX_FOLDER.resolve(filePrefix + nextGeneration + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, destinationRoot.toString());
+                out.writeLong(rootListing.mtime);
+                writeNames(out, rootListing.names);
+                writeNames(out, rootFolderNames);
+
+                Set<String> tickets = new TreeSet<>(folderOffsets.keySet());
+                tickets.addAll(folders.keySet());
+                out.writeInt(tickets.size());
+                for (String ticket : tickets) {
+                    Listing listing = listingOf(ticket);
+                    ByteArrayOutputStream names = new ByteArrayOutputStream();
+                    writeNames(new DataOutputStream(names), listing.names);
+
+                    writeString(out, ticket);
+                    out.writeLong(listing.mtime);
+                    out.writeInt(names.size());
+                    names.writeTo(out);
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+            deleteOlderFiles(filePrefix, nextGeneration);
+        } catch (IOException e) {
+            // The index is only a shortcut, the next run lists the folders instead
+            dirty = true;
+            e.printStackTrace();
+        }
+    }
+
+    private Listing listingOf(String ticket) {
+        Listing listing = folders.get(ticket);
+        if (listing != null) {
+            return listing;
+        }
+        synchronized (this) {
+            Integer offset = folderOffsets.get(ticket);
+            if (offset == null) {
+                return null;
+            }
+            // Decode once, later lookups are served from memory
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(offset);
+            long mtime = buffer.getLong();
+            buffer.getInt();
+            listing = new Listing(mtime, readNames(buffer));
+            Listing raced = folders.putIfAbsent(ticket, listing);
+            return raced != null ? raced : listing;
+        }
+    }
+
+    // Only the folders directly under the destination root are ticket folders
+    private String ticketOf(Path folder) {
+        Path absoluteFolder = folder.toAbsolutePath().normalize();
+        if (!destinationRoot.equals(absoluteFolder.getParent())) {
+            return null;
+        }
+        return absoluteFolder.getFileName().toString();
+    }
+
+    private static long modifiedTime(Path folder) {
+        try {
+            return Files.getLastModifiedTime(folder).toMillis();
+        } catch (IOException e) {
+            return UNKNOWN_MTIME;
+        }
+    }
+
+    // Method to read the newest index file for the destination, or start an empty index
+    private static TicketFolderIndex load(Path destinationRoot) {
+        String filePrefix = filePrefix(destinationRoot);
+        long generation = highestGeneration(filePrefix);
+        if (generation == 0) {
+            return new TicketFolderIndex(destinationRoot, 0);
+        }
+
+        TicketFolderIndex index = new TicketFolderIndex(destinationRoot, generation);
+        Path file = INDEX_FOLDER.resolve(filePrefix + generation + EXTENSION);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || !readString(buffer).equals(destinationRoot.toString())) {
+                // Written by another version, or for another destination with the same hash
+                return index;
+            }
+
+            long rootMtime = buffer.getLong();
+            java.util.List<String> rootNames = readNames(buffer);
+            java.util.List<String> rootFolderNames = readNames(buffer);
+
+            Map<String, Integer> folderOffsets = new HashMap<>();
+            int folderCount = buffer.getInt();
+            for (int i = 0; i < folderCount; i++) {
+                String ticket = readString(buffer);
+                folderOffsets.put(ticket, buffer.position());
+                buffer.getLong();
+                int namesLength = buffer.getInt();
+                buffer.position(buffer.position() + namesLength);
+            }
+
+            index.mapped = buffer;
+            index.rootListing = new Listing(rootMtime, rootNames);
+            index.rootFolderNames = rootFolderNames;
+            index.folderOffsets.putAll(folderOffsets);
+        } catch (IOException | RuntimeException e) {
+            // A damaged index is ignored and replaced on the next save
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    private static long highestGeneration(String filePrefix) {
+        long highest = 0;
+        if (!Files.isDirectory(INDEX_FOLDER)) {
+            return highest;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(INDEX_FOLDER, filePrefix + "*" + EXTENSION)) {
+            for (Path file : stream) {
+                highest = Math.max(highest, parseGeneration(filePrefix, file));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return highest;
+    }
+
+    private static long parseGeneration(String filePrefix, Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(filePrefix.length(), name.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // A file that is still mapped cannot be deleted on Windows; it is tried again after the next save
+    private static void deleteOlderFiles(String filePrefix, long keepGeneration) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(INDEX_FOLDER, filePrefix + "*")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(EXTENSION) || parseGeneration(filePrefix, file) < keepGeneration) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // Still in use
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, java.util.List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+    }
+
+    private static java.util.List<String> readNames(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        java.util.List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(readString(buffer));
+        }
+        return names;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
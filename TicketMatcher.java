@@ -0,0 +1,135 @@
+import java.util.regex.*;
+
+// Finds the ticket number in a file or folder name. Matchers are built once and shared by all sort workers.
+public abstract class TicketMatcher {
+
+    // Number of consecutive digits that make up a ticket number by default
+    public static final int DEFAULT_DIGIT_COUNT = 6;
+
+    // Longest ticket number that is used as a folder name
+    static final int MAX_FOLDER_NAME_LENGTH = 100;
+
+    // Characters Windows does not allow in a file name, besides control characters
+    private static final String INVALID_NAME_CHARACTERS = "<>:\"/\\|?*";
+
+    // Method to return the ticket number in the name, or null if the name has none
+    public abstract String match(CharSequence name);
+
+    // Method to return the folder for a file of the given size, or for a folder when size is -1
+    public String match(CharSequence name, long size) {
+        return match(name);
+    }
+
+    // Method to tell whether a ticket number can be used as is as the name of one folder in the destination,
+    // on any system: not empty, not too long, no separators, no . or .., no invalid or control characters
+    public static boolean isFolderName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_FOLDER_NAME_LENGTH || name.equals(".") || name.equals("..")) {
+            return false;
+        }
+        // Windows drops a trailing dot or space, so the folder would get a different name
+        char last = name.charAt(name.length() - 1);
+        if (last == '.' || last == ' ') {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x20 || c == 0x7F || INVALID_NAME_CHARACTERS.indexOf(c) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Method to build the matcher for the saved settings: the routing rules if there are any, else the ticket pattern
+    public static TicketMatcher fromSettings(String ticketPattern, String routingRules) {
+        if (routingRules != null && !routingRules.trim().isEmpty()) {
+            RoutingRules rules = RoutingRules.parse(routingRules);
+            if (rules.getRuleCount() > 0) {
+                return rules;
+            }
+        }
+        return fromSetting(ticketPattern);
+    }
+
+    // Method to build the matcher for a ticket pattern setting, an empty setting means the default digit rule
+    public static TicketMatcher fromSetting(String ticketPattern) {
+        if (ticketPattern == null || ticketPattern.trim().isEmpty()) {
+            return digits(DEFAULT_DIGIT_COUNT);
+        }
+        return pattern(ticketPattern.trim());
+    }
+
+    // Method to match the first run of at least the given number of digits
+    public static TicketMatcher digits(int consecutiveCount) {
+        return new DigitRunMatcher(consecutiveCount);
+    }
+
+    // Method to match a user-defined regular expression; if it has a capturing group, group 1 is the ticket number
+    public static TicketMatcher pattern(String regex) throws PatternSyntaxException {
+        return new RegexMatcher(Pattern.compile(regex));
+    }
+
+    // Single pass over the characters, no regex and no allocation unless a ticket number is found
+    static class DigitRunMatcher extends TicketMatcher {
+        private final int consecutiveCount;
+
+        DigitRunMatcher(int consecutiveCount) {
+            this.consecutiveCount = Math.max(1, consecutiveCount);
+        }
+
+        int getConsecutiveCount() {
+            return consecutiveCount;
+        }
+
+        @Override
+        public String match(CharSequence name) {
+            int length = name.length();
+            int runStart = -1;
+
+            for (int i = 0; i <= length; i++) {
+                char c = i < length ? name.charAt(i) : 0;
+                if (c >= '0' && c <= '9') {
+                    if (runStart < 0) {
+                        runStart = i;
+                    }
+                } else if (runStart >= 0) {
+                    // Return the whole run that holds the match, not just the first digits of the name
+                    if (i - runStart >= consecutiveCount) {
+                        return name.subSequence(runStart, i).toString();
+                    }
+                    runStart = -1;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    // Precompiled pattern, with one reusable Matcher per thread
+    static class RegexMatcher extends TicketMatcher {
+        private final Pattern pattern;
+        private final ThreadLocal<Matcher> matchers;
+
+        RegexMatcher(Pattern pattern) {
+            this.pattern = pattern;
+            this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+        }
+
+        @Override
+        public String match(CharSequence name) {
+            Matcher matcher = matchers.get().reset(name);
+
+            if (!matcher.find()) {
+                return null;
+            }
+
+            String ticketNumber = matcher.groupCount() > 0 && matcher.group(1) != null ? matcher.group(1) : matcher.group();
+            return ticketNumber.isEmpty() ? null : ticketNumber;
+        }
+
+        @Override
+        public String toString() {
+            return pattern.pattern();
+        }
+    }
+}
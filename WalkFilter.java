@@ -0,0 +1,83 @@
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.*;
+
+// Limits what a walk of the source folder looks at: how many folder levels deep it goes, glob patterns
+// for entries to leave alone, and whether hidden and system entries are skipped. Excluded folders are
+// not descended into at all.
+public class WalkFilter {
+
+    // Walks everything, as before there were walk settings
+    public static final WalkFilter NONE = new WalkFilter(0, Collections.emptyList(), false);
+
+    private final int maxDepth;
+    private final java.util.List<PathMatcher> excludes;
+    private final boolean skipHidden;
+
+    private WalkFilter(int maxDepth, java.util.List<PathMatcher> excludes, boolean skipHidden) {
+        this.maxDepth = maxDepth <= 0 ? Integer.MAX_VALUE : maxDepth;
+        this.excludes = excludes;
+        this.skipHidden = skipHidden;
+    }
+
+    // Method to build the filter from the settings. Depth 0 means no limit, 1 only looks at the entries
+    // directly in the source folder. Patterns are globs separated by ';', matched against the entry name
+    // and its path below the source folder. Throws IllegalArgumentException for an invalid pattern.
+    public static WalkFilter fromSettings(int maxDepth, String excludePatterns, boolean skipHidden) {
+        java.util.List<PathMatcher> excludes = new ArrayList<>();
+        if (excludePatterns != null) {
+            for (String pattern : excludePatterns.split(";")) {
+                if (!pattern.trim().isEmpty()) {
+                    excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim()));
+                }
+            }
+        }
+        return new WalkFilter(maxDepth, excludes, skipHidden);
+    }
+
+    // Number of folder levels below the source folder the walk may look into, Integer.MAX_VALUE for no limit
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // Method to return the depth for Files.walkFileTree when starting at a path inside the source folder, or -1 if it is too deep
+    public int walkDepth(Path sourceRoot, Path startPath) {
+        if (maxDepth == Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        int startDepth = startPath.equals(sourceRoot) ? 0 : sourceRoot.relativize(startPath).getNameCount();
+        return maxDepth - startDepth;
+    }
+
+    // Method to tell whether an entry below the source folder is left out, with the attributes the walk already has
+    public boolean skips(Path sourceRoot, Path entry, BasicFileAttributes attrs) {
+        Path name = entry.getFileName();
+        if (name == null) {
+            return false;
+        }
+
+        if (skipHidden && isHidden(name, attrs)) {
+            return true;
+        }
+
+        if (!excludes.isEmpty()) {
+            Path relative = entry.startsWith(sourceRoot) ? sourceRoot.relativize(entry) : name;
+            for (PathMatcher exclude : excludes) {
+                if (exclude.matches(name) || exclude.matches(relative)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // On Windows the walk's attributes already carry the hidden and system flags, elsewhere hidden means a leading dot
+    private static boolean isHidden(Path name, BasicFileAttributes attrs) {
+        if (attrs instanceof DosFileAttributes) {
+            DosFileAttributes dosAttrs = (DosFileAttributes) attrs;
+            return dosAttrs.isHidden() || dosAttrs.isSystem();
+        }
+        return name.toString().startsWith(".");
+    }
+}
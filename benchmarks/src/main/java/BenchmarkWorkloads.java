@@ -0,0 +1,301 @@
+import filesorter.benchmarks.Workload;
+
+import javax.swing.*;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.regex.*;
+
+// The work timed by the benchmarks in filesorter.benchmarks, set up here because only code in the default
+// package can use the FileSorter classes
+public class BenchmarkWorkloads {
+
+    // Method to create the workload with the given name; size and depth mean what the benchmark says they mean
+    public static Workload create(String name, int size, int depth) throws Exception {
+        switch (name) {
+            case "matcher.compilePerCall":
+                return compilePerCallMatcher(fileNameCorpus(size));
+            case "matcher.digits":
+                return matcher(fileNameCorpus(size), TicketMatcher.digits(TicketMatcher.DEFAULT_DIGIT_COUNT));
+            case "matcher.pattern":
+                return matcher(fileNameCorpus(size), TicketMatcher.pattern("(\\d{6,})"));
+            case "matcher.routingRules":
+                return matcher(fileNameCorpus(size), routingRules());
+            case "naming.existsProbing":
+                return naming(size, depth, false);
+            case "naming.allocator":
+                return naming(size, depth, true);
+            case "listing.listFiles":
+            case "listing.firstRows":
+            case "listing.fullListing":
+            case "listing.resort":
+            case "listing.filter":
+                return listing(name.substring("listing.".length()), size);
+            default:
+                if (name.startsWith("sort.")) {
+                    return sort(Integer.parseInt(name.substring("sort.".length())), size, depth);
+                }
+                throw new IllegalArgumentException("Unknown workload: " + name);
+        }
+    }
+
+    // The original hasConsecutiveNumbers/getCommonNumberPart, which compiled both patterns on every call
+    private static Workload compilePerCallMatcher(String[] corpus) {
+        return new Workload() {
+            private int next = 0;
+
+            @Override
+            public Object run() {
+                String name = corpus[next];
+                next = (next + 1) % corpus.length;
+                if (Pattern.compile("\\d{6}").matcher(name).find()) {
+                    Matcher matcher = Pattern.compile("\\d+").matcher(name);
+                    if (matcher.find()) {
+                        return matcher.group();
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static Workload matcher(String[] corpus, TicketMatcher ticketMatcher) {
+        return new Workload() {
+            private int next = 0;
+
+            @Override
+            public Object run() {
+                String name = corpus[next];
+                next = (next + 1) % corpus.length;
+                return ticketMatcher.match(name, 4096);
+            }
+        };
+    }
+
+    // 50 rules of every kind, the DIGITS rule last so most names go through all of them
+    private static TicketMatcher routingRules() {
+        StringBuilder rules = new StringBuilder();
+        for (int i = 0; i < 45; i++) {
+            rules.append("PREFIX customer").append(i).append(" -> Customer").append(i).append('\n');
+        }
+        rules.append("DATE\nEXTENSION iso,dmg -> Installers\nSIZE >1GB -> Large\nSIZE <1KB -> Tiny\nDIGITS 6\n");
+        return RoutingRules.parse(rules.toString());
+    }
+
+    // Names for copies of capture.log in a folder that already holds the given number of them
+    private static Workload naming(int duplicates, int namesPerRun, boolean useAllocator) throws IOException {
+        Path folder = Files.createTempDirectory("filesorter-naming");
+        Files.createFile(folder.resolve("capture.log"));
+        for (int i = 1; i < duplicates; i++) {
+            Files.createFile(folder.resolve("capture(" + i + ").log"));
+        }
+
+        return new Workload() {
+            private final java.util.List<Path> reserved = new ArrayList<>();
+
+            @Override
+            public Object run() throws IOException {
+                if (useAllocator) {
+                    DestinationNameAllocator allocator = new DestinationNameAllocator();
+                    for (int i = 0; i < namesPerRun; i++) {
+                        reserved.add(allocator.allocate(folder, "capture.log", false));
+                    }
+                } else {
+                    for (int i = 0; i < namesPerRun; i++) {
+                        File destination = folder.resolve("capture.log").toFile();
+                        int copyIndex = 1;
+                        while (destination.exists()) {
+                            destination = folder.resolve("capture(" + copyIndex + ").log").toFile();
+                            copyIndex++;
+                        }
+                        Files.createFile(destination.toPath());
+                        reserved.add(destination.toPath());
+                    }
+                }
+                return reserved.size();
+            }
+
+            @Override
+            public void reset() throws IOException {
+                for (Path path : reserved) {
+                    Files.deleteIfExists(path);
+                }
+                reserved.clear();
+            }
+
+            @Override
+            public void close() throws IOException {
+                deleteTree(folder);
+            }
+        };
+    }
+
+    // updateFileList population for a folder with the given number of entries
+    private static Workload listing(String kind, int entries) throws Exception {
+        Path folder = Files.createTempDirectory("filesorter-listing");
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(folder.resolve("entry_" + i + ".txt"));
+        }
+
+        // Sorting and filtering are timed on a listing that is already shown
+        DirectoryTableModel shownModel = new DirectoryTableModel();
+        if (kind.equals("resort") || kind.equals("filter")) {
+            SwingUtilities.invokeAndWait(() -> {
+                shownModel.load(folder);
+                shownModel.readAll();
+            });
+            waitForSize(shownModel, entries);
+        }
+
+        return new Workload() {
+            // Loading it again lets go of a listing still waiting for its next page
+            private final DirectoryTableModel tableModel = new DirectoryTableModel();
+
+            @Override
+            public Object run() throws Exception {
+                switch (kind) {
+                    case "listFiles":
+                        DefaultListModel<String> listModel = new DefaultListModel<>();
+                        for (File file : folder.toFile().listFiles()) {
+                            listModel.addElement(file.getName());
+                        }
+                        return listModel.size();
+                    case "firstRows":
+                        return load(Math.min(entries, DirectoryTableModel.PAGE_SIZE), false);
+                    case "fullListing":
+                        return load(entries, true);
+                    case "resort":
+                        SwingUtilities.invokeAndWait(() -> shownModel.sortBy(DirectorySnapshot.COLUMN_MODIFIED));
+                        return shownModel.getSortColumn();
+                    default:
+                        SwingUtilities.invokeAndWait(() -> shownModel.setFilter("y_12"));
+                        SwingUtilities.invokeAndWait(() -> shownModel.setFilter(""));
+                        return shownModel.getRowCount();
+                }
+            }
+
+            // The whole folder is only read when asked for, as sorting or filtering would
+            private Object load(int rows, boolean wholeFolder) throws Exception {
+                // Without the cached listing, which would otherwise be shown at once from the second run on
+                Files.deleteIfExists(ListingCache.fileFor(folder));
+                SwingUtilities.invokeAndWait(() -> {
+                    tableModel.load(folder);
+                    if (wholeFolder) {
+                        tableModel.readAll();
+                    }
+                });
+                waitForSize(tableModel, rows);
+                return tableModel;
+            }
+
+            @Override
+            public void close() throws IOException {
+                Files.deleteIfExists(ListingCache.fileFor(folder));
+                deleteTree(folder);
+            }
+        };
+    }
+
+    private static void waitForSize(DirectoryTableModel tableModel, int size) throws Exception {
+        int[] current = new int[1];
+        while (true) {
+            SwingUtilities.invokeAndWait(() -> current[0] = tableModel.getRowCount());
+            if (current[0] >= size) {
+                return;
+            }
+            Thread.sleep(0, 100000);
+        }
+    }
+
+    // End-to-end sort of a generated source tree of the given size and depth; reset() generates the tree
+    private static Workload sort(int threadCount, int fileCount, int depth) throws IOException {
+        Path root = Files.createTempDirectory("filesorter-sort");
+        Path source = root.resolve("source");
+        Path destination = root.resolve("destination");
+        String[] corpus = fileNameCorpus(fileCount);
+        TicketMatcher ticketMatcher = TicketMatcher.digits(TicketMatcher.DEFAULT_DIGIT_COUNT);
+
+        return new Workload() {
+            @Override
+            public Object run() throws Exception {
+                SortEngine engine = new SortEngine(source, destination, threadCount, ticketMatcher, new SortEngine.Listener() {
+                    @Override
+                    public void itemMoved(Path from, Path to, String commonNumberPart) {
+                    }
+
+                    @Override
+                    public void itemFailed(Path from, IOException e) {
+                    }
+                });
+                try {
+                    engine.run();
+                } finally {
+                    engine.close();
+                }
+                return engine.getMovedCount();
+            }
+
+            @Override
+            public void reset() throws IOException {
+                deleteTree(source);
+                deleteTree(destination);
+                Files.createDirectories(destination);
+                // Spread the files over a tree of the requested depth, creating the ticket folders they need
+                Random random = new Random(42);
+                for (String name : corpus) {
+                    Path folder = source;
+                    for (int level = random.nextInt(depth + 1); level > 0; level--) {
+                        folder = folder.resolve("folder" + random.nextInt(4));
+                    }
+                    Files.createDirectories(folder);
+                    Files.createFile(folder.resolve(name + "_" + random.nextInt(Integer.MAX_VALUE)));
+                    String ticketNumber = ticketMatcher.match(name);
+                    if (ticketNumber != null) {
+                        Files.createDirectories(destination.resolve(ticketNumber));
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                deleteTree(root);
+            }
+        };
+    }
+
+    // Method to generate upload names like the ones found on a support desktop, about half carry a ticket number
+    private static String[] fileNameCorpus(int size) {
+        String[] templates = {
+                "Capture_%d.mp4", "log.txt", "v2_%d_screenshot.png", "TSC-Support-Logs (1).zip",
+                "Recording %d.trec", "IMG_2024_0312.jpg", "ticket-%d-details.docx", "SnagitDebugLog.txt",
+                "%d", "setup_v23.1.4.exe"
+        };
+        Random random = new Random(7);
+        String[] corpus = new String[size];
+        for (int i = 0; i < size; i++) {
+            String template = templates[random.nextInt(templates.length)];
+            corpus[i] = String.format(template, 100000 + random.nextInt(900000));
+        }
+        return corpus;
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,38 @@
+package filesorter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// updateFileList population for a large folder: File.listFiles into a list model as the original code did,
+// the first rows and the full listing of a DirectoryTableModel, and re-sorting and filtering a listing shown
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ListingBenchmark {
+
+    @Param({"10000"})
+    public int entries;
+
+    @Param({"listFiles", "firstRows", "fullListing", "resort", "filter"})
+    public String listing;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create("listing." + listing, entries, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object list() throws Exception {
+        return workload.run();
+    }
+}
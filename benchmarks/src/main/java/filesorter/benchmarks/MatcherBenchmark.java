@@ -0,0 +1,31 @@
+package filesorter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// hasConsecutiveNumbers/getCommonNumberPart over a realistic set of upload names: the regex compiled per
+// call as the original code did, the digit matcher, a ticket pattern, and a list of 50 routing rules
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MatcherBenchmark {
+
+    @Param({"compilePerCall", "digits", "pattern", "routingRules"})
+    public String matcher;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("matcher." + matcher, 100000, 0);
+    }
+
+    // Each call matches the next name of the corpus
+    @Benchmark
+    public Object match() throws Exception {
+        return workload.run();
+    }
+}
@@ -0,0 +1,47 @@
+package filesorter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Collision suffixes for 100 new copies of a name in a folder that already holds many: File.exists()
+// probing as the original code did, and the DestinationNameAllocator
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(NamingBenchmark.NAMES_PER_INVOCATION)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NamingBenchmark {
+
+    static final int NAMES_PER_INVOCATION = 100;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int duplicates;
+
+    @Param({"existsProbing", "allocator"})
+    public String naming;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create("naming." + naming, duplicates, NAMES_PER_INVOCATION);
+    }
+
+    // The names taken by one invocation are freed before the next
+    @TearDown(Level.Invocation)
+    public void reset() throws Exception {
+        workload.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object allocateNames() throws Exception {
+        return workload.run();
+    }
+}
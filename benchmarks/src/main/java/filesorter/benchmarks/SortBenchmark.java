@@ -0,0 +1,47 @@
+package filesorter.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// End-to-end sort of a generated source tree. Each iteration sorts a freshly generated tree once, so the
+// size and depth of the tree can be set with -p files=N -p depth=D.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class SortBenchmark {
+
+    @Param({"10000"})
+    public int files;
+
+    @Param({"3"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.create("sort." + threads, files, depth);
+    }
+
+    // The tree is generated again before every sort, outside the measured time
+    @Setup(Level.Iteration)
+    public void generateTree() throws Exception {
+        workload.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object sort() throws Exception {
+        return workload.run();
+    }
+}
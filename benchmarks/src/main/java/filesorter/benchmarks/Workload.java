@@ -0,0 +1,29 @@
+package filesorter.benchmarks;
+
+// One piece of FileSorter work to time. The FileSorter classes are in the default package, which code in a
+// package cannot refer to, and JMH does not accept benchmarks in the default package; so the work itself is
+// set up by BenchmarkWorkloads in the default package and the benchmarks only call it through this interface.
+public interface Workload extends AutoCloseable {
+
+    // Method to do the work once and return something that depends on it
+    Object run() throws Exception;
+
+    // Method to undo what run() changed, so the next run starts from the same state
+    default void reset() throws Exception {
+    }
+
+    @Override
+    default void close() throws Exception {
+    }
+
+    // Method to create a workload by name with BenchmarkWorkloads.create
+    static Workload create(String name, int size, int depth) throws Exception {
+        try {
+            return (Workload) Class.forName("BenchmarkWorkloads")
+                    .getMethod("create", String.class, int.class, int.class)
+                    .invoke(null, name, size, depth);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}